@@ -4,32 +4,33 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
 class AdaptiveHuffman {
     public static void main(String[] args) {
         try {
-            // 1. Read input from input.txt
-            String input = new String(Files.readAllBytes(Paths.get("input.txt")), "UTF-8").trim();
-            System.out.println("Input: " + input);
+            // 1. Read input from input.txt, byte for byte
+            byte[] input = Files.readAllBytes(Paths.get("input.txt"));
+            System.out.println("Input: " + new String(input, "UTF-8"));
 
             // 2. Encoding
             HuffmanTree tree = new HuffmanTree();
             Encoder encoder = new Encoder(tree);
-            String encoded = encoder.encode(input);
-            Files.write(Paths.get("output.bin"), encoded.getBytes());
-            System.out.println("Encoded: " + encoded);
+            byte[] encoded = encoder.encode(input);
+            Files.write(Paths.get("output.bin"), encoded);
+            System.out.println("Encoded: " + input.length + " bytes to " + encoded.length + " bytes");
 
             // 3. Decoding using a new tree
             HuffmanTree decodeTree = new HuffmanTree();
             Decoder decoder = new Decoder(decodeTree);
-            String decoded = decoder.decode(encoded);
-            Files.write(Paths.get("decoded.txt"), decoded.getBytes("UTF-8"));
-            System.out.println("Decoded: " + decoded);
+            byte[] decoded = decoder.decode(encoded);
+            Files.write(Paths.get("decoded.txt"), decoded);
+            System.out.println("Decoded: " + new String(decoded, "UTF-8"));
 
             // 4. Verification
-            System.out.println("Success: " + input.equals(decoded));
+            System.out.println("Success: " + Arrays.equals(input, decoded));
 
             // 5. Tree Visualization
             saveCompleteTreeVisualization(decodeTree, "huffman_tree.png");
@@ -143,7 +144,7 @@ class AdaptiveHuffman {
             g2d.drawRect(rect.x, rect.y, rect.width, rect.height);
 
             String symbol = node.isNYT() ? "NYT" :
-                            node.isLeaf() ? "'" + node.getSymbol() + "'" : "";
+                            node.isLeaf() ? node.getLabel() : "";
             String weight = "W:" + node.getWeight();
             String order = "O:" + node.getOrder();
 
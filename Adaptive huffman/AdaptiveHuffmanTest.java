@@ -1,6 +1,13 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
 
 public class AdaptiveHuffmanTest {
 
@@ -9,6 +16,8 @@ public class AdaptiveHuffmanTest {
             testBasicEncodingDecoding();
             testRepeatedSymbols();
             testLongerText();
+            testSiblingProperty();
+            testBinaryData();
             System.out.println("All tests passed successfully!");
         } catch (AssertionError e) {
             String errorMsg = "Test failed: " + e.getMessage();
@@ -108,6 +117,126 @@ public class AdaptiveHuffmanTest {
         System.out.println("Test 3 completed. Results in Test3_LongerText.txt");
     }
 
+    private static void testSiblingProperty() throws IOException {
+        StringBuilder results = new StringBuilder();
+        results.append("Test 4: Sibling Property and Long Input\n");
+        String sentence = "The quick brown fox jumps over the lazy dog";
+
+        // After every update, weights must not decrease with the order
+        HuffmanTree tree = new HuffmanTree();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            char symbol = sentence.charAt((i * i + i / 7) % sentence.length());
+            text.append(symbol);
+            tree.update(symbol);
+            checkSiblingProperty(tree, "after " + (i + 1) + " symbols");
+        }
+        results.append("Passed: sibling property after each of 2000 updates\n");
+
+        // Many updates in a row, which searched the whole tree every step before
+        while (text.length() < 200000) {
+            text.append(sentence).append(text, 0, Math.min(text.length(), 997));
+        }
+        String test = text.toString();
+        String encoded = new Encoder(new HuffmanTree()).encode(test);
+        String decoded = new Decoder(new HuffmanTree()).decode(encoded);
+
+        assertEquals(test, decoded, "Long text test failed");
+
+        double originalBits = test.length() * 8;
+        double compressedBits = encoded.length();
+        results.append("Passed: ").append(test.length()).append(" symbols\n");
+        results.append(String.format("    Bits per symbol: %.3f\n", compressedBits / test.length()));
+        results.append(String.format("    Compression ratio: %.2f:1 (Original: %.0f bits, Compressed: %.0f bits)\n", originalBits / compressedBits, originalBits, compressedBits));
+
+        writeToFile("Test4_SiblingProperty.txt", results.toString());
+        System.out.println("Test 4 completed. Results in Test4_SiblingProperty.txt");
+    }
+
+    private static void testBinaryData() throws IOException {
+        StringBuilder results = new StringBuilder();
+        results.append("Test 5: Binary Data and EOF\n");
+
+        // NUL and bytes above 127 as chars of a string
+        String[] testStrings = {"", "\0", "a\0b\0\0", "caf\u00e9 \u00ff\u0080"};
+        for (String test : testStrings) {
+            String encoded = new Encoder(new HuffmanTree()).encode(test);
+            String decoded = new Decoder(new HuffmanTree()).decode(encoded + "0000000");
+            assertEquals(test, decoded, "String test failed for " + Arrays.toString(test.getBytes()));
+            results.append("Passed: ").append(test.length()).append(" chars in ").append(encoded.length())
+                    .append(" bits, padding ignored\n");
+        }
+
+        byte[] allBytes = new byte[256 * 3];
+        for (int i = 0; i < allBytes.length; i++) {
+            allBytes[i] = (byte) (i * 7);
+        }
+        byte[] skewed = new byte[100000];
+        Random random = new Random(25);
+        for (int i = 0; i < skewed.length; i++) {
+            skewed[i] = (byte) (random.nextGaussian() * 12);
+        }
+        byte[] noise = new byte[100000];
+        random.nextBytes(noise);
+        byte[][] tests = {new byte[0], new byte[1000], allBytes, skewed, noise};
+        String[] names = {"empty", "1000 NUL bytes", "all 256 byte values", "skewed bytes", "random bytes"};
+        for (int t = 0; t < tests.length; t++) {
+            byte[] encoded = new Encoder(new HuffmanTree()).encode(tests[t]);
+            byte[] decoded = new Decoder(new HuffmanTree()).decode(encoded);
+            if (!Arrays.equals(tests[t], decoded))
+                throw new AssertionError("Byte test failed for " + names[t]);
+            results.append("Passed: ").append(names[t]).append(", ").append(tests[t].length).append(" bytes to ")
+                    .append(encoded.length).append(" bytes\n");
+        }
+
+        // All 256 bytes and EOF fit in the orders of a tree
+        HuffmanTree tree = new HuffmanTree();
+        for (byte b : allBytes) {
+            tree.update(b & 0xFF);
+        }
+        tree.update(HuffmanTree.EOF);
+        checkSiblingProperty(tree, "with all 257 symbols");
+        assertEquals(0, tree.getNYTNode().getOrder(), "Order of the NYT node with all 257 symbols");
+        results.append("Passed: sibling property with all 257 symbols\n");
+
+        // Without its EOF a stream must fail, not stop on the padding
+        byte[] encoded = new Encoder(new HuffmanTree()).encode(skewed);
+        try {
+            new Decoder(new HuffmanTree()).decode(Arrays.copyOf(encoded, encoded.length / 2));
+            throw new AssertionError("Truncated stream decoded without error");
+        } catch (IllegalArgumentException e) {
+            results.append("Passed: truncated stream rejected (").append(e.getMessage()).append(")\n");
+        }
+
+        writeToFile("Test5_BinaryData.txt", results.toString());
+        System.out.println("Test 5 completed. Results in Test5_BinaryData.txt");
+    }
+
+    // Every internal weight is the sum of its children, siblings have
+    // neighbouring orders, and weights never decrease with the order.
+    private static void checkSiblingProperty(HuffmanTree tree, String when) {
+        List<Node> nodes = new ArrayList<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(tree.getRoot());
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            nodes.add(node);
+            Node left = node.getLeftChild();
+            Node right = node.getRightChild();
+            if (left == null)
+                continue;
+            queue.add(left);
+            queue.add(right);
+            assertEquals(left.getWeight() + right.getWeight(), node.getWeight(), "Weight of " + node + " " + when);
+            assertEquals(1, Math.abs(left.getOrder() - right.getOrder()), "Children of " + node + " " + when);
+        }
+        nodes.sort(Comparator.comparingInt(Node::getOrder));
+        for (int i = 1; i < nodes.size(); i++) {
+            if (nodes.get(i).getWeight() < nodes.get(i - 1).getWeight())
+                throw new AssertionError("Sibling property broken at " + nodes.get(i) + " " + when);
+        }
+    }
+
     private static void assertEquals(String expected, String actual, String message) {
         if (!expected.equals(actual)) {
             throw new AssertionError(message);
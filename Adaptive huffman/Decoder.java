@@ -1,3 +1,5 @@
+import java.io.ByteArrayOutputStream;
+
 public class Decoder {
     private final HuffmanTree huffmanTree;
 
@@ -5,18 +7,55 @@ public class Decoder {
         this.huffmanTree = tree;
     }
 
+    // Decodes up to EOF; whatever follows it is padding
     public String decode(String encodedInput) {
         StringBuilder decodedOutput = new StringBuilder();
         int index = 0;
 
-        while (index < encodedInput.length()) {
+        while (true) {
             HuffmanTree.DecodingResult result = huffmanTree.decodeNextSymbol(encodedInput, index);
-            if (result == null) break;
-            decodedOutput.append(result.getSymbol());
+            if (result == null)
+                throw new IllegalArgumentException("Stream ended before EOF");
+            if (result.getSymbol() == HuffmanTree.EOF) break;
+            decodedOutput.append((char) result.getSymbol());
             index = result.getNextIndex();
             huffmanTree.update(result.getSymbol());
         }
 
         return decodedOutput.toString();
     }
-}
\ No newline at end of file
+
+    public byte[] decode(byte[] encodedInput) {
+        ByteArrayOutputStream decodedOutput = new ByteArrayOutputStream(encodedInput.length * 2);
+        long totalBits = encodedInput.length * 8L;
+        long position = 0;
+
+        while (true) {
+            Node current = huffmanTree.getRoot();
+            while (current.getLeftChild() != null) {
+                if (position >= totalBits)
+                    throw new IllegalArgumentException("Stream ended before EOF");
+                int bit = encodedInput[(int) (position >>> 3)] >>> (7 - (position & 7)) & 1;
+                position++;
+                current = bit == 0 ? current.getLeftChild() : current.getRightChild();
+            }
+            int symbol;
+            if (current.isLeaf()) {
+                symbol = current.getSymbol();
+            } else {
+                if (position + HuffmanTree.SYMBOL_BITS > totalBits)
+                    throw new IllegalArgumentException("Stream ended before EOF");
+                int bits = 0;
+                for (int k = 0; k < HuffmanTree.SYMBOL_BITS; k++, position++) {
+                    bits = bits << 1 | encodedInput[(int) (position >>> 3)] >>> (7 - (position & 7)) & 1;
+                }
+                symbol = huffmanTree.readNewSymbol(bits);
+            }
+            if (symbol == HuffmanTree.EOF) break;
+            decodedOutput.write(symbol);
+            huffmanTree.update(symbol);
+        }
+
+        return decodedOutput.toByteArray();
+    }
+}
@@ -1,3 +1,5 @@
+import java.io.ByteArrayOutputStream;
+
 public class Encoder {
     private final HuffmanTree huffmanTree;
 
@@ -5,6 +7,7 @@ public class Encoder {
         this.huffmanTree = tree;
     }
 
+    // Every char must be a byte value (0-255); the output ends with EOF
     public String encode(String input) {
         StringBuilder encodedOutput = new StringBuilder();
 
@@ -13,7 +16,34 @@ public class Encoder {
             encodedOutput.append(encodedSymbol);
             huffmanTree.update(symbol);
         }
+        encodedOutput.append(huffmanTree.getEncodingForSymbol(HuffmanTree.EOF));
 
         return encodedOutput.toString();
     }
-}
\ No newline at end of file
+
+    // Packs the bits eight to a byte, first bit highest; the last byte is
+    // padded with zeros after EOF.
+    public byte[] encode(byte[] input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+        byte[] code = new byte[HuffmanTree.MAX_CODE_LENGTH];
+        int buffer = 0;
+        int bitCount = 0;
+        for (int i = 0; i <= input.length; i++) {
+            int symbol = i < input.length ? input[i] & 0xFF : HuffmanTree.EOF;
+            int length = huffmanTree.getCode(symbol, code);
+            for (int k = 0; k < length; k++) {
+                buffer = buffer << 1 | code[k];
+                if (++bitCount == 8) {
+                    out.write(buffer);
+                    buffer = 0;
+                    bitCount = 0;
+                }
+            }
+            if (symbol != HuffmanTree.EOF)
+                huffmanTree.update(symbol);
+        }
+        if (bitCount > 0)
+            out.write(buffer << (8 - bitCount));
+        return out.toByteArray();
+    }
+}
@@ -1,95 +1,130 @@
 import java.util.*;
 
+// FGK adaptive Huffman tree. Nodes are numbered by order so that weights
+// never decrease with the order (the sibling property), which keeps the nodes
+// of equal weight together as a block. byOrder finds a node by its order, and
+// every node knows its block, whose leader is its highest order; an update
+// swaps each node on the path to the root with its block leader before
+// incrementing it, so it costs O(depth) without searching the tree.
+//
+// The symbols are the 256 byte values and EOF, which ends the stream. A
+// symbol seen for the first time is sent as the code of the NYT node and
+// then the symbol in SYMBOL_BITS bits.
 public class HuffmanTree {
+    public static final int EOF = 256;
+    public static final int SYMBOL_BITS = 9;
+    // Every new symbol adds two nodes to the NYT node, so orders run 0..2 * 257
+    private static final int MAX_ORDER = 2 * (EOF + 1);
+    // The NYT code is at most one bit per order, then the symbol
+    public static final int MAX_CODE_LENGTH = MAX_ORDER + SYMBOL_BITS;
+
     private Node root;
     private Node nytNode;
-    private Map<Character, Node> symbolTable;
+    private Node[] symbolTable;
     private int nextOrder;
+    private Node[] byOrder;
+    // Blocks are numbered slots; a free slot is reused for the next new block
+    private int[] blockLeader;
+    private int[] blockWeight;
+    private int[] freeBlocks;
+    private int freeBlockCount;
 
     public HuffmanTree() {
-        nextOrder = 512;
+        nextOrder = MAX_ORDER;
         nytNode = new Node(nextOrder--);
         root = nytNode;
-        symbolTable = new HashMap<>();
-    }
-
-    public void update(char symbol) {
-        if (symbolTable.containsKey(symbol)) {
-            updateExistingSymbol(symbolTable.get(symbol));
-        } else {
-            addNewSymbol(symbol);
+        symbolTable = new Node[EOF + 1];
+        byOrder = new Node[MAX_ORDER + 1];
+        byOrder[MAX_ORDER] = nytNode;
+        blockLeader = new int[MAX_ORDER + 1];
+        blockWeight = new int[MAX_ORDER + 1];
+        freeBlocks = new int[MAX_ORDER + 1];
+        for (int i = MAX_ORDER; i >= 0; i--) {
+            freeBlocks[freeBlockCount++] = i;
         }
+        nytNode.setBlock(newBlock(MAX_ORDER, 0));
     }
 
-    private void addNewSymbol(char symbol) {
-        Node symbolNode = new Node(symbol, 1, nextOrder--);
-        Node internalNode = new Node(nextOrder--);
-        Node newNYT = new Node(nextOrder--);
-
-        internalNode.setLeftChild(newNYT);
-        internalNode.setRightChild(symbolNode);
-
-        if (root == nytNode) {
-            root = internalNode;
+    public void update(int symbol) {
+        Node current = symbolTable[checkSymbol(symbol)];
+        // The sibling of the NYT node goes last: its parent has the same weight
+        // and must move first, or the leaf would swap with its own parent.
+        Node leafToIncrement = null;
+        if (current == null) {
+            current = addNewSymbol(symbol);
+            leafToIncrement = current.getRightChild();
         } else {
-            Node parent = nytNode.getParent();
-            if (parent.getLeftChild() == nytNode) {
-                parent.setLeftChild(internalNode);
-            } else {
-                parent.setRightChild(internalNode);
+            swapWithLeader(current);
+            if (current.getParent() != null && current.getParent() == nytNode.getParent()) {
+                leafToIncrement = current;
+                current = current.getParent();
             }
         }
-
-        nytNode = newNYT;
-        symbolTable.put(symbol, symbolNode);
-
-        Node current = internalNode;
         while (current != null) {
-            current.incrementWeight();
+            swapWithLeader(current);
+            increment(current);
             current = current.getParent();
         }
+        if (leafToIncrement != null) {
+            swapWithLeader(leafToIncrement);
+            increment(leafToIncrement);
+        }
     }
 
-    private void updateExistingSymbol(Node leafNode) {
-        Node current = leafNode;
-        while (current != null) {
-            Node blockLeader = findHighestNodeInBlock(current.getWeight());
-            if (blockLeader != null && blockLeader != current && 
-                blockLeader.getOrder() > current.getOrder() &&
-                !isAncestor(blockLeader, current) && !isAncestor(current, blockLeader)) {
-                swapNodes(current, blockLeader);
-            }
-            current.incrementWeight();
-            current = current.getParent();
-        }
+    // The NYT node becomes an internal node with a new NYT node and a leaf
+    // for symbol as children, both of weight 0. Returns the old NYT node.
+    private Node addNewSymbol(int symbol) {
+        if (nextOrder < 1)
+            throw new IllegalStateException("Too many distinct symbols");
+        Node parent = nytNode;
+        Node symbolNode = new Node(symbol, 0, nextOrder--);
+        Node newNYT = new Node(nextOrder--);
+        parent.setLeftChild(newNYT);
+        parent.setRightChild(symbolNode);
+        byOrder[symbolNode.getOrder()] = symbolNode;
+        byOrder[newNYT.getOrder()] = newNYT;
+        // All three have weight 0, one block led by the old NYT node
+        symbolNode.setBlock(parent.getBlock());
+        newNYT.setBlock(parent.getBlock());
+
+        nytNode = newNYT;
+        symbolTable[symbol] = symbolNode;
+        return parent;
     }
 
-    private Node findHighestNodeInBlock(int weight) {
-        Node highest = null;
-        Queue<Node> queue = new LinkedList<>();
-        queue.add(root);
+    // Moves node to the highest order of its block, unless it is there already
+    private void swapWithLeader(Node node) {
+        Node leader = byOrder[blockLeader[node.getBlock()]];
+        if (leader != node && leader != node.getParent())
+            swapNodes(node, leader);
+    }
 
-        while (!queue.isEmpty()) {
-            Node current = queue.poll();
-            if (current.getWeight() == weight && 
-                (highest == null || current.getOrder() > highest.getOrder())) {
-                highest = current;
-            }
-            if (current.getLeftChild() != null) queue.add(current.getLeftChild());
-            if (current.getRightChild() != null) queue.add(current.getRightChild());
-        }
-        return highest;
+    // Adds one to the weight of node, which leads its block. It leaves its
+    // block, and joins the block right above if that has the new weight.
+    private void increment(Node node) {
+        int order = node.getOrder();
+        int block = node.getBlock();
+        if (order > 0 && byOrder[order - 1] != null && byOrder[order - 1].getBlock() == block)
+            blockLeader[block] = order - 1;
+        else
+            freeBlocks[freeBlockCount++] = block;
+        node.incrementWeight();
+        Node above = order < MAX_ORDER ? byOrder[order + 1] : null;
+        if (above != null && blockWeight[above.getBlock()] == node.getWeight())
+            node.setBlock(above.getBlock());
+        else
+            node.setBlock(newBlock(order, node.getWeight()));
     }
 
-    private boolean isAncestor(Node potential, Node descendant) {
-        Node current = descendant;
-        while (current != null) {
-            if (current == potential) return true;
-            current = current.getParent();
-        }
-        return false;
+    private int newBlock(int leader, int weight) {
+        int block = freeBlocks[--freeBlockCount];
+        blockLeader[block] = leader;
+        blockWeight[block] = weight;
+        return block;
     }
 
+    // Swaps the places of two nodes of the same block, subtrees and all; only
+    // their orders change hands.
     private void swapNodes(Node node1, Node node2) {
         Node parent1 = node1.getParent();
         Node parent2 = node2.getParent();
@@ -108,70 +143,84 @@ public class HuffmanTree {
         int tempOrder = node1.getOrder();
         node1.setOrder(node2.getOrder());
         node2.setOrder(tempOrder);
+        byOrder[node1.getOrder()] = node1;
+        byOrder[node2.getOrder()] = node2;
 
         if (node1 == root) root = node2;
         else if (node2 == root) root = node1;
     }
 
-    public String getEncodingForSymbol(char symbol) {
-        Node node = symbolTable.get(symbol);
+    private static int checkSymbol(int symbol) {
+        if (symbol < 0 || symbol > EOF)
+            throw new IllegalArgumentException("Not a byte or EOF: " + symbol);
+        return symbol;
+    }
+
+    // Puts the code for symbol in bits, one 0 or 1 per entry, and returns its
+    // length. bits needs room for MAX_CODE_LENGTH entries.
+    public int getCode(int symbol, byte[] bits) {
+        Node node = symbolTable[checkSymbol(symbol)];
+        Node target = node != null ? node : nytNode;
+        int length = 0;
+        for (Node current = target; current != root; current = current.getParent()) {
+            length++;
+        }
+        int i = length;
+        for (Node current = target; current != root; current = current.getParent()) {
+            bits[--i] = (byte) (current.getParent().getLeftChild() == current ? 0 : 1);
+        }
         if (node == null) {
-            return getPathToNode(nytNode) + String.format("%8s", Integer.toBinaryString(symbol)).replace(' ', '0');
+            for (int k = SYMBOL_BITS - 1; k >= 0; k--) {
+                bits[length++] = (byte) (symbol >>> k & 1);
+            }
         }
-        return getPathToNode(node);
+        return length;
     }
 
-    private String getPathToNode(Node node) {
-        StringBuilder path = new StringBuilder();
-        Node current = node;
-        while (current != root) {
-            Node parent = current.getParent();
-            path.insert(0, parent.getLeftChild() == current ? "0" : "1");
-            current = parent;
+    public String getEncodingForSymbol(int symbol) {
+        byte[] bits = new byte[MAX_CODE_LENGTH];
+        int length = getCode(symbol, bits);
+        StringBuilder code = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            code.append(bits[i] == 0 ? '0' : '1');
         }
-        return path.toString();
+        return code.toString();
     }
 
+    // Reads the symbol after the NYT code, which must be one not seen before
+    public int readNewSymbol(int bits) {
+        if (bits > EOF || symbolTable[bits] != null)
+            throw new IllegalArgumentException("Corrupt stream: bad new symbol " + bits);
+        return bits;
+    }
+
+    // Returns null when bits ends before the code does
     public DecodingResult decodeNextSymbol(String bits, int startIndex) {
         Node current = root;
         int i = startIndex;
-
-        while (i < bits.length()) {
-            if (current.isLeaf()) {
-                return new DecodingResult(current.getSymbol(), i);
-            }
-            if (current.isNYT() && i + 8 <= bits.length()) {
-                String asciiStr = bits.substring(i, i + 8);
-                char symbol = (char) Integer.parseInt(asciiStr, 2);
-                return new DecodingResult(symbol, i + 8);
-            }
-            char bit = bits.charAt(i++);
-            current = bit == '0' ? current.getLeftChild() : current.getRightChild();
-            if (current == null) return null;
+        while (current.getLeftChild() != null) {
+            if (i >= bits.length()) return null;
+            current = bits.charAt(i++) == '0' ? current.getLeftChild() : current.getRightChild();
         }
-
         if (current.isLeaf()) return new DecodingResult(current.getSymbol(), i);
-        else if (current.isNYT() && i + 8 <= bits.length()) {
-            String asciiStr = bits.substring(i, i + 8);
-            char symbol = (char) Integer.parseInt(asciiStr, 2);
-            return new DecodingResult(symbol, i + 8);
-        }
-        return null;
+        if (i + SYMBOL_BITS > bits.length()) return null;
+        int symbol = readNewSymbol(Integer.parseInt(bits.substring(i, i + SYMBOL_BITS), 2));
+        return new DecodingResult(symbol, i + SYMBOL_BITS);
     }
 
     public static class DecodingResult {
-        private final char symbol;
+        private final int symbol;
         private final int nextIndex;
 
-        public DecodingResult(char symbol, int nextIndex) {
+        public DecodingResult(int symbol, int nextIndex) {
             this.symbol = symbol;
             this.nextIndex = nextIndex;
         }
 
-        public char getSymbol() { return symbol; }
+        public int getSymbol() { return symbol; }
         public int getNextIndex() { return nextIndex; }
     }
 
     public Node getRoot() { return root; }
     public Node getNYTNode() { return nytNode; }
-}
\ No newline at end of file
+}
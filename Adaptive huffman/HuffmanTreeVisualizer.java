@@ -192,7 +192,7 @@ public class HuffmanTreeVisualizer extends JFrame {
             g2d.setColor(Color.BLACK);
             g2d.drawRect(pos.x, pos.y, nodeWidth, nodeHeight);
 
-            String nodeText = node.isNYT() ? "NYT" : node.isLeaf() ? String.valueOf(node.getSymbol()) : "";
+            String nodeText = node.isNYT() ? "NYT" : node.isLeaf() ? node.getLabel() : "";
             String weightText = String.valueOf(node.getWeight());
             String orderText = "#" + node.getOrder();
 
@@ -1,28 +1,34 @@
 public class Node {
-    private char symbol;
+    // The symbol of internal nodes and the NYT node; every byte is a symbol
+    public static final int NO_SYMBOL = -1;
+
+    private int symbol;
     private int weight;
     private int order;
+    private int block;
     private Node parent;
     private Node leftChild;
     private Node rightChild;
 
     public Node(int order) {
-        this.symbol = '\0';
+        this.symbol = NO_SYMBOL;
         this.weight = 0;
         this.order = order;
     }
 
-    public Node(char symbol, int weight, int order) {
+    public Node(int symbol, int weight, int order) {
         this.symbol = symbol;
         this.weight = weight;
         this.order = order;
     }
 
-    public char getSymbol() { return symbol; }
+    public int getSymbol() { return symbol; }
     public int getWeight() { return weight; }
     public void incrementWeight() { this.weight++; }
     public int getOrder() { return order; }
     public void setOrder(int order) { this.order = order; }
+    public int getBlock() { return block; }
+    public void setBlock(int block) { this.block = block; }
     public Node getParent() { return parent; }
     public void setParent(Node parent) { this.parent = parent; }
     public Node getLeftChild() { return leftChild; }
@@ -39,17 +45,24 @@ public class Node {
     }
 
     public boolean isLeaf() {
-        return leftChild == null && rightChild == null && symbol != '\0';
+        return leftChild == null && rightChild == null && symbol != NO_SYMBOL;
     }
 
     public boolean isNYT() {
-        return leftChild == null && rightChild == null && weight == 0;
+        return leftChild == null && rightChild == null && symbol == NO_SYMBOL;
+    }
+
+    // Printable ASCII as the character, other bytes in hex
+    public String getLabel() {
+        if (symbol == HuffmanTree.EOF) return "EOF";
+        if (symbol >= 32 && symbol < 127) return "'" + (char) symbol + "'";
+        return String.format("0x%02X", symbol);
     }
 
     @Override
     public String toString() {
         if (isNYT()) return "NYT [#" + order + ", w=" + weight + "]";
-        else if (isLeaf()) return "'" + symbol + "' [#" + order + ", w=" + weight + "]";
+        else if (isLeaf()) return getLabel() + " [#" + order + ", w=" + weight + "]";
         else return "Node [#" + order + ", w=" + weight + "]";
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+import java.io.*;
+
+// Reads values written by BitWriter, most significant bit first.
+public class BitReader implements Closeable {
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPos;
+    private int bufferLimit;
+    private long bitBuffer;
+    private int bitCount;
+    // Zero bits peekBits appended after the end of the stream
+    private int paddingBits;
+
+    public BitReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Returns the next count bits (at most 32), or -1 if the stream ends first.
+    public long readBits(int count) throws IOException {
+        while (bitCount - paddingBits < count) {
+            int b = nextByte();
+            if (b < 0 || paddingBits > 0)
+                return -1;
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+        bitCount -= count;
+        return (bitBuffer >>> bitCount) & (-1L >>> (64 - count));
+    }
+
+    // Returns the next count bits (at most 32) without consuming them; past
+    // the end of the stream the missing bits read as zeros.
+    public int peekBits(int count) throws IOException {
+        while (bitCount < count) {
+            int b = paddingBits > 0 ? -1 : nextByte();
+            if (b < 0) {
+                b = 0;
+                paddingBits += 8;
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+        return (int) ((bitBuffer >>> (bitCount - count)) & (-1L >>> (64 - count)));
+    }
+
+    // Consumes count bits that were already peeked.
+    public void skipBits(int count) throws IOException {
+        if (count > bitCount - paddingBits)
+            throw new EOFException("Unexpected end of bit stream");
+        bitCount -= count;
+    }
+
+    private int nextByte() throws IOException {
+        if (bufferPos == bufferLimit) {
+            bufferLimit = in.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLimit <= 0) {
+                bufferLimit = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
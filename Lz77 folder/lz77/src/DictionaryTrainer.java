@@ -0,0 +1,100 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Builds a preset dictionary for Lz77OutputStream.setDictionary from sample
+// records. Every sample is cut into overlapping segments, and a segment is
+// worth the number of samples that contain each of its GRAM-byte substrings.
+// The best segments are taken greedily; once a segment is in the dictionary
+// its substrings are worth nothing, so later picks add new content. The most
+// valuable segments go at the end of the dictionary, nearest to the data.
+public class DictionaryTrainer {
+    public static final int DICTIONARY_SIZE = 16 * 1024;
+    private static final int SEGMENT = 64;
+    private static final int STEP = 16;
+    private static final int GRAM = 8;
+    private static final int TABLE_BITS = 20;
+
+    public static byte[] train(String directory, int dictionarySize) throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory))) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file))
+                    samples.add(Files.readAllBytes(file));
+            }
+        }
+        return train(samples, dictionarySize);
+    }
+
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        // In how many samples every substring occurs, by hash
+        int[] sampleCount = new int[1 << TABLE_BITS];
+        int[] lastSample = new int[1 << TABLE_BITS];
+        Arrays.fill(lastSample, -1);
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                int h = hash(sample, i);
+                if (lastSample[h] != s) {
+                    lastSample[h] = s;
+                    sampleCount[h]++;
+                }
+            }
+        }
+
+        // Segments as (sample, offset), best first; scores are refreshed lazily
+        PriorityQueue<long[]> segments = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + GRAM <= sample.length; i += STEP) {
+                long score = score(sample, i, sampleCount);
+                if (score > 0)
+                    segments.add(new long[] { score, s, i });
+            }
+        }
+
+        byte[] dictionary = new byte[dictionarySize];
+        int start = dictionarySize;
+        while (start > 0 && !segments.isEmpty()) {
+            long[] segment = segments.poll();
+            byte[] sample = samples.get((int) segment[1]);
+            int offset = (int) segment[2];
+            long score = score(sample, offset, sampleCount);
+            if (score == 0)
+                continue;
+            if (!segments.isEmpty() && score < segments.peek()[0]) {
+                segment[0] = score;
+                segments.add(segment);
+                continue;
+            }
+
+            int length = Math.min(Math.min(SEGMENT, sample.length - offset), start);
+            start -= length;
+            System.arraycopy(sample, offset, dictionary, start, length);
+            for (int i = offset; i + GRAM <= offset + length; i++) {
+                sampleCount[hash(sample, i)] = 0;
+            }
+        }
+        return Arrays.copyOfRange(dictionary, start, dictionarySize);
+    }
+
+    // Substrings seen in only one sample are not worth keeping
+    private static long score(byte[] sample, int offset, int[] sampleCount) {
+        long score = 0;
+        int end = Math.min(offset + SEGMENT, sample.length);
+        for (int i = offset; i + GRAM <= end; i++) {
+            int count = sampleCount[hash(sample, i)];
+            if (count > 1)
+                score += count;
+        }
+        return score;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        long h = 0;
+        for (int i = 0; i < GRAM; i++) {
+            h = (h << 8) | (data[pos + i] & 0xFF);
+        }
+        return (int) ((h * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.*;
+
+// Canonical Huffman codes for the entropy-coded LZ77 mode. Code lengths are
+// built the same way as buildHuffmanTree in the Huffman module (merge the two
+// rarest nodes until one is left) and then limited to maxLength bits.
+public class HuffmanCode {
+    public static final int MAX_LENGTH = 15;
+
+    private static class Node implements Comparable<Node> {
+        final int symbol;
+        final long frequency;
+        Node left, right;
+
+        Node(int symbol, long frequency) {
+            this.symbol = symbol;
+            this.frequency = frequency;
+        }
+
+        public int compareTo(Node node) {
+            return Long.compare(this.frequency, node.frequency);
+        }
+    }
+
+    // Returns the code length of every symbol; unused symbols get 0.
+    public static int[] codeLengths(int[] frequencies, int maxLength) {
+        int[] lengths = new int[frequencies.length];
+        PriorityQueue<Node> pq = new PriorityQueue<>();
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0)
+                pq.add(new Node(i, frequencies[i]));
+        }
+        if (pq.isEmpty())
+            return lengths;
+        if (pq.size() == 1) {
+            lengths[pq.poll().symbol] = 1;
+            return lengths;
+        }
+        while (pq.size() > 1) {
+            Node left = pq.poll();
+            Node right = pq.poll();
+            Node parent = new Node(-1, left.frequency + right.frequency);
+            parent.left = left;
+            parent.right = right;
+            pq.add(parent);
+        }
+
+        int[] lengthCounts = new int[64];
+        assignLengths(pq.poll(), 0, lengths, lengthCounts);
+        limitLengths(frequencies, lengths, lengthCounts, maxLength);
+        return lengths;
+    }
+
+    private static void assignLengths(Node node, int depth, int[] lengths, int[] lengthCounts) {
+        if (node.left == null) {
+            lengths[node.symbol] = depth;
+            lengthCounts[depth]++;
+            return;
+        }
+        assignLengths(node.left, depth + 1, lengths, lengthCounts);
+        assignLengths(node.right, depth + 1, lengths, lengthCounts);
+    }
+
+    // Moves codes longer than maxLength up the tree (JPEG Annex K.3): two
+    // leaves at the deepest level become one leaf a level up, and a shorter
+    // leaf is split to take the freed place. The lengths are then handed out
+    // again, shortest to the most frequent symbols.
+    private static void limitLengths(int[] frequencies, int[] lengths, int[] lengthCounts, int maxLength) {
+        int deepest = lengthCounts.length - 1;
+        while (deepest > 0 && lengthCounts[deepest] == 0)
+            deepest--;
+        if (deepest <= maxLength)
+            return;
+
+        for (int i = deepest; i > maxLength; i--) {
+            while (lengthCounts[i] > 0) {
+                int j = i - 2;
+                while (lengthCounts[j] == 0)
+                    j--;
+                lengthCounts[i] -= 2;
+                lengthCounts[i - 1]++;
+                lengthCounts[j + 1] += 2;
+                lengthCounts[j]--;
+            }
+        }
+
+        Integer[] symbols = new Integer[frequencies.length];
+        int used = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0)
+                symbols[used++] = i;
+        }
+        Arrays.sort(symbols, 0, used, (a, b) -> Integer.compare(frequencies[b], frequencies[a]));
+        int next = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            for (int k = 0; k < lengthCounts[length]; k++) {
+                lengths[symbols[next++]] = length;
+            }
+        }
+    }
+
+    // Canonical code values: shorter codes first, equal lengths by symbol order.
+    public static int[] canonicalCodes(int[] lengths) {
+        int[] lengthCounts = new int[MAX_LENGTH + 2];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCode = new int[MAX_LENGTH + 2];
+        int code = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0)
+                codes[i] = nextCode[lengths[i]]++;
+        }
+        return codes;
+    }
+
+    // Lookup table indexed by the next tableBits bits of input; every entry is
+    // symbol << 4 | code length. tableBits is the longest code length.
+    public static int[] decodingTable(int[] lengths, int tableBits) {
+        int[] table = new int[1 << tableBits];
+        int[] codes = canonicalCodes(lengths);
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            if (length == 0)
+                continue;
+            int first = codes[i] << (tableBits - length);
+            int count = 1 << (tableBits - length);
+            Arrays.fill(table, first, first + count, i << 4 | length);
+        }
+        return table;
+    }
+
+    // Values of 1 and up are sent as a bucket symbol plus extra bits, the way
+    // DEFLATE sends distances: 1-4 have their own symbols, then every power of
+    // two is split into two buckets.
+    public static int valueSymbol(int value) {
+        int v = value - 1;
+        if (v < 4)
+            return v;
+        int n = 31 - Integer.numberOfLeadingZeros(v);
+        return 2 * n + ((v >>> (n - 1)) & 1);
+    }
+
+    public static int extraBits(int symbol) {
+        return symbol < 4 ? 0 : (symbol >>> 1) - 1;
+    }
+
+    public static int valueBase(int symbol) {
+        if (symbol < 4)
+            return symbol + 1;
+        int n = symbol >>> 1;
+        return ((2 | (symbol & 1)) << (n - 1)) + 1;
+    }
+}
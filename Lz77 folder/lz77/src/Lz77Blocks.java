@@ -0,0 +1,240 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Block-parallel LZ77. The input is cut into fixed-size blocks that are
+// compressed on a ForkJoinPool, each into its own complete Lz77OutputStream
+// frame. Layout:
+//
+//   magic "LB", flags, block size, block count, original length
+//   frame 0 .. frame n-1
+//   block index: compressed length of every frame
+//   offset of the block index
+//
+// Independent frames decode in parallel. Primed frames start with the window
+// before their block loaded as a dictionary; that buys back the ratio lost at
+// block edges, but then each frame needs the previous one decoded first.
+public class Lz77Blocks {
+    public static final int MAGIC = 0x4C42; // "LB"
+    public static final int BLOCK_SIZE = 1 << 20;
+    private static final int FLAG_PRIMED = 1;
+    private static final int HEADER_SIZE = 19;
+
+    // Hands out a view of part of the input; blocks may be read from any thread.
+    private interface BlockSource {
+        ByteBuffer slice(long offset, int length) throws IOException;
+    }
+
+    // Receives decoded blocks; blocks may arrive from any thread, in any order.
+    private interface BlockSink {
+        void write(long offset, byte[] block, int from, int length) throws IOException;
+    }
+
+    public static void compressFile(String readFile, String writeFile, int blockSize, boolean primed,
+            ForkJoinPool pool) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ);
+                OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(writeFile))) {
+            compress((offset, length) -> fileIn.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                    fileIn.size(), fileOut, blockSize, primed, pool);
+        }
+    }
+
+    public static byte[] compress(byte[] data, int blockSize, boolean primed, ForkJoinPool pool)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+        compress((offset, length) -> ByteBuffer.wrap(data, (int) offset, length), data.length, bytes,
+                blockSize, primed, pool);
+        return bytes.toByteArray();
+    }
+
+    private static void compress(BlockSource source, long length, OutputStream out, int blockSize,
+            boolean primed, ForkJoinPool pool) throws IOException {
+        int blockCount = (int) ((length + blockSize - 1) / blockSize);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(MAGIC);
+        dataOut.writeByte(primed ? FLAG_PRIMED : 0);
+        dataOut.writeInt(blockSize);
+        dataOut.writeInt(blockCount);
+        dataOut.writeLong(length);
+
+        // Frames are written in order as they finish; only a few blocks per
+        // thread are in flight so memory stays bounded on large inputs.
+        int[] frameLengths = new int[blockCount];
+        long indexOffset = HEADER_SIZE;
+        int maxInFlight = 2 * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        for (int i = 0; i < blockCount; i++) {
+            while (next < blockCount && inFlight.size() < maxInFlight) {
+                int block = next++;
+                inFlight.add(pool.submit(() -> compressBlock(source, length, blockSize, block, primed)));
+            }
+            byte[] frame = join(inFlight.poll());
+            frameLengths[i] = frame.length;
+            indexOffset += frame.length;
+            dataOut.write(frame);
+        }
+
+        for (int frameLength : frameLengths) {
+            dataOut.writeInt(frameLength);
+        }
+        dataOut.writeLong(indexOffset);
+        dataOut.flush();
+    }
+
+    private static byte[] compressBlock(BlockSource source, long length, int blockSize, int block,
+            boolean primed) throws IOException {
+        long offset = (long) block * blockSize;
+        int blockLength = (int) Math.min(blockSize, length - offset);
+        int dictionaryLength = primed ? dictionaryLength(blockSize, offset) : 0;
+        int window = Math.max(1, Math.min(Lz77OutputStream.WINDOW_SIZE, blockLength + dictionaryLength));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockLength / 2 + 16);
+        try (Lz77OutputStream out = new Lz77OutputStream(bytes, window, Lz77OutputStream.MAX_CHAIN,
+                Lz77OutputStream.Parse.GREEDY)) {
+            if (dictionaryLength > 0) {
+                byte[] dictionary = new byte[dictionaryLength];
+                source.slice(offset - dictionaryLength, dictionaryLength).get(dictionary);
+                out.setDictionary(dictionary, 0, dictionaryLength);
+            }
+            out.write(source.slice(offset, blockLength));
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void decompressFile(String readFile, String writeFile, ForkJoinPool pool) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ);
+                FileChannel fileOut = FileChannel.open(Paths.get(writeFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            decompress((offset, length) -> fileIn.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                    fileIn.size(), (offset, block, from, length) -> {
+                        ByteBuffer src = ByteBuffer.wrap(block, from, length);
+                        while (src.hasRemaining()) {
+                            fileOut.write(src, offset + src.position() - from);
+                        }
+                    }, pool);
+        }
+    }
+
+    public static byte[] decompress(byte[] compressed, ForkJoinPool pool) throws IOException {
+        long length = ByteBuffer.wrap(compressed).getLong(HEADER_SIZE - 8);
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Too large for a byte array: " + length);
+        byte[] result = new byte[(int) length];
+        decompress((offset, len) -> ByteBuffer.wrap(compressed, (int) offset, len), compressed.length,
+                (offset, block, from, len) -> System.arraycopy(block, from, result, (int) offset, len), pool);
+        return result;
+    }
+
+    private static void decompress(BlockSource source, long compressedLength, BlockSink sink, ForkJoinPool pool)
+            throws IOException {
+        DataInputStream header = new DataInputStream(new ByteBufferInputStream(source.slice(0, HEADER_SIZE)));
+        if (header.readUnsignedShort() != MAGIC)
+            throw new IOException("Not a block LZ77 stream");
+        boolean primed = (header.readByte() & FLAG_PRIMED) != 0;
+        int blockSize = header.readInt();
+        int blockCount = header.readInt();
+        long length = header.readLong();
+
+        long indexOffset = source.slice(compressedLength - 8, 8).getLong();
+        ByteBuffer index = source.slice(indexOffset, 4 * blockCount);
+        long[] frameOffsets = new long[blockCount];
+        int[] frameLengths = new int[blockCount];
+        long frameOffset = HEADER_SIZE;
+        for (int i = 0; i < blockCount; i++) {
+            frameOffsets[i] = frameOffset;
+            frameLengths[i] = index.getInt();
+            frameOffset += frameLengths[i];
+        }
+
+        if (primed) {
+            byte[] previous = null;
+            for (int i = 0; i < blockCount; i++) {
+                long offset = (long) i * blockSize;
+                int dictionaryLength = dictionaryLength(blockSize, offset);
+                int blockLength = blockLength(length, blockSize, i);
+                byte[] block = decompressBlock(source, frameOffsets[i], frameLengths[i], previous,
+                        dictionaryLength, blockLength);
+                sink.write(offset, block, dictionaryLength, blockLength);
+                previous = block;
+            }
+            return;
+        }
+
+        ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<>();
+        for (int i = 0; i < blockCount; i++) {
+            int block = i;
+            tasks.add(pool.submit(() -> {
+                int blockLength = blockLength(length, blockSize, block);
+                sink.write((long) block * blockSize, decompressBlock(source, frameOffsets[block],
+                        frameLengths[block], null, 0, blockLength), 0, blockLength);
+                return null;
+            }));
+        }
+        while (!tasks.isEmpty()) {
+            join(tasks.poll());
+        }
+    }
+
+    private static int blockLength(long length, int blockSize, int block) {
+        return (int) Math.min(blockSize, length - (long) block * blockSize);
+    }
+
+    // A primed frame sees the end of the previous block only
+    private static int dictionaryLength(int blockSize, long offset) {
+        return (int) Math.min(Math.min(Lz77OutputStream.WINDOW_SIZE, blockSize), offset);
+    }
+
+    // Decodes a frame straight into a new array. A primed block's array starts
+    // with the end of the previous block, which its matches may refer to.
+    private static byte[] decompressBlock(BlockSource source, long frameOffset, int frameLength, byte[] previous,
+            int dictionaryLength, int blockLength) throws IOException {
+        byte[] block = new byte[dictionaryLength + blockLength];
+        if (dictionaryLength > 0)
+            System.arraycopy(previous, previous.length - dictionaryLength, block, 0, dictionaryLength);
+        try (Lz77InputStream in = new Lz77InputStream(
+                new ByteBufferInputStream(source.slice(frameOffset, frameLength)))) {
+            in.readFully(block, dictionaryLength, blockLength);
+        }
+        return block;
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (java.util.concurrent.ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// A preset dictionary prepared once for many small records: the match finder
+// tables for its bytes are built here, and every Lz77OutputStream given the
+// dictionary copies them instead of inserting the whole dictionary again.
+// The decoder only needs the bytes.
+public class Lz77Dictionary {
+    private final byte[] bytes;
+    private final MatchFinder finder;
+
+    public Lz77Dictionary(byte[] dictionary) {
+        // Only the last window of a longer dictionary can be matched
+        int n = Math.min(dictionary.length, Lz77OutputStream.WINDOW_SIZE);
+        this.bytes = java.util.Arrays.copyOfRange(dictionary, dictionary.length - n, dictionary.length);
+        this.finder = new MatchFinder(bytes, Math.max(1, n), Lz77OutputStream.MAX_MATCH, 0);
+        for (int i = 0; i < n; i++) {
+            finder.insert(i, n);
+        }
+    }
+
+    public byte[] getBytes() { return bytes; }
+    MatchFinder getFinder() { return finder; }
+}
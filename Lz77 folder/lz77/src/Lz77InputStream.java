@@ -0,0 +1,264 @@
+import java.io.*;
+
+// Decompresses the LZ77 tag format written by Lz77OutputStream. Tags are
+// decoded into a buffer holding two windows plus one tag; once the reader has
+// taken the decoded bytes, only the last window of them is kept. Both the
+// fixed-width and the Huffman coded format are read; the magic tells them apart.
+public class Lz77InputStream extends InputStream {
+    private final BitReader in;
+    private final int bitsForDistance;
+    private final int bitsForLength;
+    private final int window;
+    private final int maxTag;
+    private final byte[] buffer;
+    private int readPos;
+    private int writePos;
+    private boolean eof;
+
+    // Huffman coded format: decoding tables of the current block
+    private final boolean huffman;
+    private boolean inBlock;
+    private boolean lastBlock;
+    private int[] literalTable;
+    private int literalBits;
+    private int[] distanceTable;
+    private int distanceBits;
+
+    public Lz77InputStream(InputStream in) throws IOException {
+        this.in = new BitReader(in);
+        long magic = this.in.readBits(16);
+        if (magic != Lz77OutputStream.MAGIC && magic != Lz77OutputStream.HUFFMAN_MAGIC)
+            throw new IOException("Not an LZ77 stream");
+        this.huffman = magic == Lz77OutputStream.HUFFMAN_MAGIC;
+        this.bitsForDistance = (int) this.in.readBits(8);
+        this.bitsForLength = (int) this.in.readBits(8);
+        if (bitsForDistance < 1 || bitsForDistance > 30 || bitsForLength < 1 || bitsForLength > 16)
+            throw new IOException("Corrupt LZ77 header");
+        this.window = 1 << bitsForDistance;
+        this.maxTag = 1 << bitsForLength;
+        this.buffer = new byte[2 * window + maxTag];
+    }
+
+    // Loads the same dictionary the compressor was given. Must come before any read.
+    public void setDictionary(byte[] b, int off, int len) {
+        if (writePos > 0 || eof)
+            throw new IllegalStateException("Dictionary must be set before any data");
+        int n = Math.min(len, window);
+        System.arraycopy(b, off + len - n, buffer, 0, n);
+        readPos = n;
+        writePos = n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (readPos == writePos && !fill())
+            return -1;
+        int n = Math.min(len, writePos - readPos);
+        System.arraycopy(buffer, readPos, b, off, n);
+        readPos += n;
+        return n;
+    }
+
+    // Decodes straight into a preallocated array: exactly len bytes go to
+    // out[off..off+len), and out[0..off) is the window matches may refer to.
+    public void readFully(byte[] out, int off, int len) throws IOException {
+        if (readPos != writePos)
+            throw new IllegalStateException("Stream already partly read");
+        int pos = decodeTags(out, off, off + len);
+        if (pos < off + len)
+            throw new EOFException("LZ77 stream ended early");
+    }
+
+    // Decodes as many tags as the buffer has room for; false at the end of the stream.
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        if (writePos + maxTag > buffer.length) {
+            int shift = writePos - window;
+            System.arraycopy(buffer, shift, buffer, 0, window);
+            readPos -= shift;
+            writePos -= shift;
+        }
+        writePos = decodeTags(buffer, writePos, buffer.length - maxTag + 1);
+        return readPos < writePos;
+    }
+
+    // Decodes tags into out starting at pos until pos reaches stop or the
+    // stream ends; every tag must fit below stop + maxTag and inside out.
+    // Returns the new pos.
+    private int decodeTags(byte[] out, int pos, int stop) throws IOException {
+        if (huffman)
+            return decodeHuffmanTags(out, pos, stop);
+        int tagBits = bitsForDistance + bitsForLength + 8;
+        while (pos < stop) {
+            long d;
+            long l;
+            long ch;
+            if (tagBits <= 32) {
+                long tag = in.readBits(tagBits);
+                d = tag >>> (bitsForLength + 8);
+                l = (tag >>> 8) & ((1 << bitsForLength) - 1);
+                ch = tag & 0xFF;
+                if (tag < 0)
+                    d = -1;
+            } else {
+                d = in.readBits(bitsForDistance);
+                l = in.readBits(bitsForLength);
+                ch = in.readBits(8);
+            }
+            // The last byte is zero padded, so a tag cut short marks the end
+            if (d < 0 || l < 0 || ch < 0) {
+                eof = true;
+                break;
+            }
+            if (d > pos || (d == 0 && l > 0) || pos + l + 1 > out.length)
+                throw new IOException("Corrupt LZ77 tag");
+
+            if (l > 0) {
+                copyMatch(out, pos - (int) d, pos, (int) l);
+                pos += (int) l;
+            }
+            out[pos++] = (byte) ch;
+        }
+        return pos;
+    }
+
+    private int decodeHuffmanTags(byte[] out, int pos, int stop) throws IOException {
+        while (pos < stop) {
+            if (!inBlock && !readBlockHeader()) {
+                eof = true;
+                break;
+            }
+            int symbol = decodeSymbol(literalTable, literalBits);
+            if (symbol == Lz77OutputStream.END_OF_BLOCK) {
+                inBlock = false;
+                continue;
+            }
+            if (symbol < Lz77OutputStream.END_OF_BLOCK) {
+                if (pos == out.length)
+                    throw new IOException("Corrupt LZ77 tag");
+                out[pos++] = (byte) symbol;
+                continue;
+            }
+
+            int lengthSymbol = symbol - Lz77OutputStream.FIRST_LENGTH_SYMBOL;
+            if (lengthSymbol > HuffmanCode.valueSymbol(maxTag - 1) || distanceTable == null)
+                throw new IOException("Corrupt LZ77 tag");
+            int length = readValue(lengthSymbol);
+            int distanceSymbol = decodeSymbol(distanceTable, distanceBits);
+            if (distanceSymbol > HuffmanCode.valueSymbol(window))
+                throw new IOException("Corrupt LZ77 tag");
+            int distance = readValue(distanceSymbol);
+            int ch = decodeSymbol(literalTable, literalBits);
+            if (ch >= Lz77OutputStream.END_OF_BLOCK || distance > pos || length >= maxTag
+                    || pos + length + 1 > out.length)
+                throw new IOException("Corrupt LZ77 tag");
+            copyMatch(out, pos - distance, pos, length);
+            pos += length;
+            out[pos++] = (byte) ch;
+        }
+        return pos;
+    }
+
+    // Reads the code lengths at the start of a block and builds its decoding
+    // tables; false once the last block has ended.
+    private boolean readBlockHeader() throws IOException {
+        if (lastBlock)
+            return false;
+        long last = in.readBits(1);
+        long literalCount = in.readBits(9);
+        long distanceCount = in.readBits(6);
+        if (last < 0 || literalCount < 0 || distanceCount < 0)
+            throw new EOFException("LZ77 stream ended early");
+        if (literalCount <= Lz77OutputStream.END_OF_BLOCK)
+            throw new IOException("Corrupt LZ77 block header");
+        int[] literalLengths = readCodeLengths((int) literalCount);
+        int[] distanceLengths = readCodeLengths((int) distanceCount);
+
+        literalBits = maxLength(literalLengths);
+        literalTable = HuffmanCode.decodingTable(literalLengths, literalBits);
+        distanceBits = maxLength(distanceLengths);
+        distanceTable = distanceBits > 0 ? HuffmanCode.decodingTable(distanceLengths, distanceBits) : null;
+        lastBlock = last == 1;
+        inBlock = true;
+        return true;
+    }
+
+    private int[] readCodeLengths(int count) throws IOException {
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            long length = in.readBits(4);
+            if (length < 0)
+                throw new EOFException("LZ77 stream ended early");
+            lengths[i] = (int) length;
+        }
+        return lengths;
+    }
+
+    // Longest code length, after checking the lengths form a prefix code
+    private static int maxLength(int[] lengths) throws IOException {
+        long kraft = 0;
+        int max = 0;
+        for (int length : lengths) {
+            if (length > 0) {
+                kraft += 1L << (HuffmanCode.MAX_LENGTH - length);
+                max = Math.max(max, length);
+            }
+        }
+        if (kraft > 1L << HuffmanCode.MAX_LENGTH)
+            throw new IOException("Corrupt LZ77 block header");
+        return max;
+    }
+
+    private int decodeSymbol(int[] table, int tableBits) throws IOException {
+        int entry = table[in.peekBits(tableBits)];
+        int length = entry & 0xF;
+        if (length == 0)
+            throw new IOException("Corrupt LZ77 tag");
+        in.skipBits(length);
+        return entry >>> 4;
+    }
+
+    // A length or distance: its bucket symbol was just decoded, the extra bits follow
+    private int readValue(int symbol) throws IOException {
+        int extra = HuffmanCode.extraBits(symbol);
+        long bits = extra > 0 ? in.readBits(extra) : 0;
+        if (bits < 0)
+            throw new EOFException("LZ77 stream ended early");
+        return HuffmanCode.valueBase(symbol) + (int) bits;
+    }
+
+    // Copies a match that may overlap its own output. Non-overlapping matches
+    // are one arraycopy; an overlapping one repeats the distance-long pattern,
+    // doubling the copied run each step.
+    static void copyMatch(byte[] buf, int from, int to, int length) {
+        int distance = to - from;
+        if (distance >= length) {
+            System.arraycopy(buf, from, buf, to, length);
+            return;
+        }
+        if (distance == 1) {
+            java.util.Arrays.fill(buf, to, to + length, buf[from]);
+            return;
+        }
+        int copied = 0;
+        while (copied < length) {
+            int n = Math.min(length - copied, distance + copied);
+            System.arraycopy(buf, from, buf, to + copied, n);
+            copied += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+// Compresses everything written to it into the bit-packed LZ77 tag format.
+// Only the window and a lookahead of one maximal tag are kept in memory: the
+// buffer holds two windows plus the lookahead, and once it is full the newer
+// window is moved down over the older one.
+//
+// GREEDY takes the longest match at every position; LAZY also looks one byte
+// ahead. OPTIMAL parses OPTIMAL_CHUNK bytes at a time with dynamic programming,
+// picking the tags with the lowest total price in bits. It is several times
+// slower than GREEDY and trades that CPU for ratio.
+//
+// With huffman set the tags are not written at fixed width but entropy coded
+// in blocks of BLOCK_TAGS tags, DEFLATE style. Each block starts with the code
+// lengths of two canonical Huffman codes: one for literals, lengths and the
+// end-of-block symbol, one for distances. A tag without a match is just its
+// literal; a match is a length symbol, a distance symbol (each followed by
+// extra bits) and then the literal. The optimal parse prices tags with the
+// code lengths of the previous block.
+public class Lz77OutputStream extends OutputStream {
+    public enum Parse { GREEDY, LAZY, OPTIMAL }
+
+    public static final int MAGIC = 0x4C37; // "L7"
+    public static final int HUFFMAN_MAGIC = 0x4C48; // "LH"
+    public static final int WINDOW_SIZE = 32 * 1024;
+    public static final int MAX_MATCH = 255;
+    public static final int MAX_CHAIN = 128;
+
+    // A full match, its next byte, and one more position for lazy matching
+    private static final int LOOKAHEAD = MAX_MATCH + 2;
+    private static final int OPTIMAL_CHUNK = 4096;
+    private static final int MAX_CANDIDATES = 32;
+    // Positions inside a match this long only look for longer matches, on
+    // half the chain
+    private static final int NICE_LENGTH = 64;
+
+    static final int BLOCK_TAGS = 16 * 1024;
+    static final int END_OF_BLOCK = 256;
+    static final int FIRST_LENGTH_SYMBOL = 257;
+
+    private final BitWriter out;
+    private final int window;
+    private final Parse parse;
+    private final int bitsForDistance;
+    private final int bitsForLength;
+    private final byte[] buffer;
+    private final int maxChain;
+    // Created on first use, so a prepared dictionary can hand over its tables
+    private MatchFinder finder;
+    private int pos;
+    private int end;
+    private boolean finished;
+
+    // Entropy coding state: the tags of the current block and the price in
+    // bits of every symbol
+    private final boolean huffman;
+    private int[] blockDistances;
+    private int[] blockLengths;
+    private byte[] blockBytes;
+    private int blockTags;
+    private int[] literalPrice;
+    private int[] distancePrice;
+
+    // Optimal parse state: cheapest price to reach each chunk position and the
+    // tag that gets there
+    private int[] price;
+    private int[] tagLength;
+    private int[] tagDistance;
+    private int[] matchLengths;
+    private int[] matchDistances;
+
+    public Lz77OutputStream(OutputStream out) throws IOException {
+        this(out, WINDOW_SIZE, MAX_CHAIN, Parse.GREEDY);
+    }
+
+    public Lz77OutputStream(OutputStream out, int window, int maxChain, Parse parse) throws IOException {
+        this(out, window, maxChain, parse, false);
+    }
+
+    public Lz77OutputStream(OutputStream out, int window, int maxChain, Parse parse, boolean huffman)
+            throws IOException {
+        this.out = new BitWriter(out);
+        this.window = window;
+        this.parse = parse;
+        this.huffman = huffman;
+        this.bitsForDistance = bitsNeeded(window);
+        this.bitsForLength = bitsNeeded(MAX_MATCH);
+        this.buffer = new byte[2 * window + LOOKAHEAD + OPTIMAL_CHUNK];
+        this.maxChain = maxChain;
+        if (parse == Parse.OPTIMAL) {
+            // The last tag of a chunk may run MAX_MATCH + 1 bytes past its end
+            price = new int[OPTIMAL_CHUNK + MAX_MATCH + 2];
+            tagLength = new int[OPTIMAL_CHUNK + MAX_MATCH + 2];
+            tagDistance = new int[OPTIMAL_CHUNK + MAX_MATCH + 2];
+            matchLengths = new int[MAX_CANDIDATES];
+            matchDistances = new int[MAX_CANDIDATES];
+        }
+        if (huffman) {
+            blockDistances = new int[BLOCK_TAGS];
+            blockLengths = new int[BLOCK_TAGS];
+            blockBytes = new byte[BLOCK_TAGS];
+            // Until the first block is coded: 8 bits a literal, 4 bits plus extra for the rest
+            literalPrice = new int[FIRST_LENGTH_SYMBOL + HuffmanCode.valueSymbol(MAX_MATCH) + 1];
+            distancePrice = new int[HuffmanCode.valueSymbol(window) + 1];
+            java.util.Arrays.fill(literalPrice, 4);
+            java.util.Arrays.fill(literalPrice, 0, END_OF_BLOCK, 8);
+            java.util.Arrays.fill(distancePrice, 4);
+        }
+
+        this.out.writeBits(huffman ? HUFFMAN_MAGIC : MAGIC, 16);
+        this.out.writeBits(bitsForDistance, 8);
+        this.out.writeBits(bitsForLength, 8);
+    }
+
+    // Loads bytes the decoder already has (e.g. the data before this block) into
+    // the window so matches can refer to them. Must come before any write.
+    public void setDictionary(byte[] b, int off, int len) {
+        if (end > 0 || finished)
+            throw new IllegalStateException("Dictionary must be set before any data");
+        int n = Math.min(len, window);
+        System.arraycopy(b, off + len - n, buffer, 0, n);
+        finder = new MatchFinder(buffer, window, MAX_MATCH, maxChain);
+        for (int i = 0; i < n; i++) {
+            finder.insert(i, n);
+        }
+        pos = n;
+        end = n;
+    }
+
+    // Same as setDictionary(byte[]), but starts from the match finder tables
+    // the dictionary already built instead of inserting every byte again.
+    public void setDictionary(Lz77Dictionary dictionary) {
+        byte[] bytes = dictionary.getBytes();
+        if (bytes.length > window) {
+            setDictionary(bytes, 0, bytes.length);
+            return;
+        }
+        if (end > 0 || finished)
+            throw new IllegalStateException("Dictionary must be set before any data");
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        finder = new MatchFinder(buffer, window, MAX_MATCH, maxChain, dictionary.getFinder(), bytes.length);
+        pos = bytes.length;
+        end = bytes.length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        while (len > 0) {
+            if (end == buffer.length)
+                slide();
+            int n = Math.min(len, buffer.length - end);
+            System.arraycopy(b, off, buffer, end, n);
+            end += n;
+            off += n;
+            len -= n;
+            compressTags(false);
+        }
+    }
+
+    // Bulk copies straight from the buffer (e.g. a memory-mapped file) into the window.
+    public void write(ByteBuffer src) throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        while (src.hasRemaining()) {
+            if (end == buffer.length)
+                slide();
+            int n = Math.min(src.remaining(), buffer.length - end);
+            src.get(buffer, end, n);
+            end += n;
+            compressTags(false);
+        }
+    }
+
+    // Writes tags for the input buffered so far. Unless finishing, enough bytes
+    // are held back for the longest possible tag.
+    private void compressTags(boolean finishing) throws IOException {
+        if (finder == null)
+            finder = new MatchFinder(buffer, window, MAX_MATCH, maxChain);
+        if (parse == Parse.OPTIMAL) {
+            while (end - pos >= OPTIMAL_CHUNK + LOOKAHEAD || (finishing && pos < end)) {
+                compressChunkOptimal(Math.min(pos + OPTIMAL_CHUNK, end));
+            }
+        } else {
+            compressTagsGreedy(finishing ? 0 : LOOKAHEAD);
+        }
+    }
+
+    // Writes tags while at least keep bytes are buffered past pos.
+    private void compressTagsGreedy(int keep) throws IOException {
+        int bestLen = -1;
+        int bestDist = 0;
+        while (end - pos >= keep && pos < end) {
+            if (bestLen < 0) {
+                bestLen = finder.findMatch(pos, end - pos - 1);
+                bestDist = finder.getMatchDistance();
+            }
+            finder.insert(pos, end);
+
+            // Lazy matching: defer the match by one byte if the next position has a longer one
+            if (parse == Parse.LAZY && bestLen > 0 && bestLen < MAX_MATCH) {
+                int nextLen = finder.findMatch(pos + 1, end - pos - 2);
+                if (nextLen > bestLen) {
+                    writeTag(0, 0, buffer[pos]);
+                    pos++;
+                    bestLen = nextLen;
+                    bestDist = finder.getMatchDistance();
+                    continue;
+                }
+            }
+
+            writeTag(bestDist, bestLen, buffer[pos + bestLen]);
+            for (int i = 1; i <= bestLen; i++) {
+                finder.insert(pos + i, end);
+            }
+            pos += bestLen + 1;
+            bestLen = -1;
+        }
+    }
+
+    // Minimum-price parse of the tags starting in [pos, chunkEnd): a shortest
+    // path where every tag is an edge from its first byte to the byte after its
+    // next char. The last tag may end past chunkEnd, so no tag is cut short at
+    // the chunk boundary, and the next chunk starts where it ends.
+    private void compressChunkOptimal(int chunkEnd) throws IOException {
+        int size = chunkEnd - pos;
+        int reach = size;
+        java.util.Arrays.fill(price, 1, Math.min(price.length, end - pos + 1), Integer.MAX_VALUE);
+        price[0] = 0;
+
+        int niceUntil = 0;
+        int niceDistance = 0;
+        for (int i = 0; i < size; i++) {
+            int at = pos + i;
+            int count = at < niceUntil
+                    ? finder.findMatches(at, end - at - 1, matchLengths, matchDistances, niceUntil - at, niceDistance,
+                            Math.max(1, maxChain / 2))
+                    : finder.findMatches(at, end - at - 1, matchLengths, matchDistances);
+            finder.insert(at, end);
+            if (count > 0 && matchLengths[count - 1] >= NICE_LENGTH && at + matchLengths[count - 1] > niceUntil) {
+                niceUntil = at + matchLengths[count - 1];
+                niceDistance = matchDistances[count - 1];
+            }
+
+            relax(i, 0, 0, buffer[at]);
+            int length = 1;
+            for (int m = 0; m < count; m++) {
+                for (; length <= matchLengths[m]; length++) {
+                    relax(i, matchDistances[m], length, buffer[at + length]);
+                }
+            }
+            reach = Math.max(reach, i + length);
+        }
+        // End at the byte past the chunk where the tags so far plus the rest
+        // at the chunk's average price per byte cost the least
+        int parseEnd = size;
+        double perByte = (double) price[size] / size;
+        for (int i = size + 1; i <= reach; i++) {
+            if (price[i] != Integer.MAX_VALUE && price[i] - i * perByte < price[parseEnd] - parseEnd * perByte)
+                parseEnd = i;
+        }
+
+        // Walk back from there, then write the tags front to back
+        int tags = 0;
+        for (int i = parseEnd; i > 0; i -= tagLength[i] + 1) {
+            tags++;
+        }
+        int[] starts = new int[tags];
+        for (int i = parseEnd, t = tags; i > 0; i -= tagLength[i] + 1) {
+            starts[--t] = i;
+        }
+        for (int tagEnd : starts) {
+            writeTag(tagDistance[tagEnd], tagLength[tagEnd], buffer[pos + tagEnd - 1]);
+        }
+        for (int at = chunkEnd; at < pos + parseEnd; at++) {
+            finder.insert(at, end);
+        }
+        pos += parseEnd;
+    }
+
+    private void relax(int from, int distance, int length, byte nextByte) {
+        int to = from + length + 1;
+        int cost = price[from] + tagPrice(distance, length, nextByte);
+        if (cost < price[to]) {
+            price[to] = cost;
+            tagLength[to] = length;
+            tagDistance[to] = distance;
+        }
+    }
+
+    // Bits the tag costs in the output
+    private int tagPrice(int distance, int length, byte nextByte) {
+        if (!huffman)
+            return bitsForDistance + bitsForLength + 8;
+        int price = literalPrice[nextByte & 0xFF];
+        if (length > 0) {
+            int lengthSymbol = HuffmanCode.valueSymbol(length);
+            int distanceSymbol = HuffmanCode.valueSymbol(distance);
+            price += literalPrice[FIRST_LENGTH_SYMBOL + lengthSymbol] + HuffmanCode.extraBits(lengthSymbol)
+                    + distancePrice[distanceSymbol] + HuffmanCode.extraBits(distanceSymbol);
+        }
+        return price;
+    }
+
+    private void writeTag(int distance, int length, byte nextByte) throws IOException {
+        if (huffman) {
+            blockDistances[blockTags] = distance;
+            blockLengths[blockTags] = length;
+            blockBytes[blockTags++] = nextByte;
+            if (blockTags == BLOCK_TAGS)
+                writeBlock(false);
+            return;
+        }
+        out.writeBits(distance, bitsForDistance);
+        out.writeBits(length, bitsForLength);
+        out.writeBits(nextByte & 0xFF, 8);
+    }
+
+    // Entropy codes the buffered tags as one block:
+    //   last-block bit, literal/length code size (9 bits), distance code size (6 bits),
+    //   4-bit code length of every symbol, the tags, end of block
+    private void writeBlock(boolean last) throws IOException {
+        int[] literalFrequencies = new int[literalPrice.length];
+        int[] distanceFrequencies = new int[distancePrice.length];
+        literalFrequencies[END_OF_BLOCK] = 1;
+        for (int i = 0; i < blockTags; i++) {
+            literalFrequencies[blockBytes[i] & 0xFF]++;
+            if (blockLengths[i] > 0) {
+                literalFrequencies[FIRST_LENGTH_SYMBOL + HuffmanCode.valueSymbol(blockLengths[i])]++;
+                distanceFrequencies[HuffmanCode.valueSymbol(blockDistances[i])]++;
+            }
+        }
+        int[] literalLengths = HuffmanCode.codeLengths(literalFrequencies, HuffmanCode.MAX_LENGTH);
+        int[] distanceLengths = HuffmanCode.codeLengths(distanceFrequencies, HuffmanCode.MAX_LENGTH);
+        int[] literalCodes = HuffmanCode.canonicalCodes(literalLengths);
+        int[] distanceCodes = HuffmanCode.canonicalCodes(distanceLengths);
+
+        int literalCount = literalLengths.length;
+        while (literalLengths[literalCount - 1] == 0)
+            literalCount--;
+        int distanceCount = distanceLengths.length;
+        while (distanceCount > 0 && distanceLengths[distanceCount - 1] == 0)
+            distanceCount--;
+        out.writeBits(last ? 1 : 0, 1);
+        out.writeBits(literalCount, 9);
+        out.writeBits(distanceCount, 6);
+        for (int i = 0; i < literalCount; i++) {
+            out.writeBits(literalLengths[i], 4);
+        }
+        for (int i = 0; i < distanceCount; i++) {
+            out.writeBits(distanceLengths[i], 4);
+        }
+
+        for (int i = 0; i < blockTags; i++) {
+            int length = blockLengths[i];
+            if (length > 0) {
+                int symbol = HuffmanCode.valueSymbol(length);
+                out.writeBits(literalCodes[FIRST_LENGTH_SYMBOL + symbol], literalLengths[FIRST_LENGTH_SYMBOL + symbol]);
+                out.writeBits(length - HuffmanCode.valueBase(symbol), HuffmanCode.extraBits(symbol));
+                int distance = blockDistances[i];
+                symbol = HuffmanCode.valueSymbol(distance);
+                out.writeBits(distanceCodes[symbol], distanceLengths[symbol]);
+                out.writeBits(distance - HuffmanCode.valueBase(symbol), HuffmanCode.extraBits(symbol));
+            }
+            int literal = blockBytes[i] & 0xFF;
+            out.writeBits(literalCodes[literal], literalLengths[literal]);
+        }
+        out.writeBits(literalCodes[END_OF_BLOCK], literalLengths[END_OF_BLOCK]);
+        blockTags = 0;
+
+        // Symbols missing from this block may still show up in the next one
+        for (int i = 0; i < literalPrice.length; i++) {
+            literalPrice[i] = literalLengths[i] > 0 ? literalLengths[i] : HuffmanCode.MAX_LENGTH;
+        }
+        for (int i = 0; i < distancePrice.length; i++) {
+            distancePrice[i] = distanceLengths[i] > 0 ? distanceLengths[i] : HuffmanCode.MAX_LENGTH;
+        }
+    }
+
+    // Keeps the last window bytes before pos and drops everything older.
+    private void slide() {
+        System.arraycopy(buffer, window, buffer, 0, end - window);
+        pos -= window;
+        end -= window;
+        finder.slide();
+    }
+
+    // Writes the tags still held back as lookahead; no more input may follow.
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        compressTags(true);
+        if (huffman)
+            writeBlock(true);
+        out.alignToByte();
+        out.flush();
+        finished = true;
+    }
+
+    // Pushes out the tags written so far. Tags still waiting for lookahead are
+    // only written by finish(), since the format has no way to end a tag early.
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    public long getBitsWritten() {
+        return out.getBitsWritten();
+    }
+
+    static int bitsNeeded(int number) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(number));
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class Lz77Test {
+
+    public static void main(String[] args) {
+        try {
+            testEmptyAndSingleSymbol();
+            testParses();
+            testBlocks();
+            System.out.println("All tests passed successfully!");
+        } catch (AssertionError e) {
+            System.err.println("Test failed: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // No tags at all, and one symbol that matches itself at distance 1
+    private static void testEmptyAndSingleSymbol() throws IOException {
+        byte[] single = new byte[100000];
+        Arrays.fill(single, (byte) 'a');
+        for (byte[] data : new byte[][] { new byte[0], { 'a' }, single }) {
+            for (Lz77OutputStream.Parse parse : Lz77OutputStream.Parse.values()) {
+                for (boolean huffman : new boolean[] { false, true }) {
+                    roundTrip(data, Lz77OutputStream.WINDOW_SIZE, parse, huffman,
+                            data.length + " bytes of one symbol");
+                }
+            }
+        }
+        System.out.println("Test 1 completed: empty input and a single symbol");
+    }
+
+    // Every parse with and without Huffman-coded tags, at windows from far
+    // smaller than the input to the default
+    private static void testParses() throws IOException {
+        Random random = new Random(5);
+        byte[] text = text(300000, random);
+        byte[] binary = new byte[50000];
+        random.nextBytes(binary);
+        for (Lz77OutputStream.Parse parse : Lz77OutputStream.Parse.values()) {
+            for (boolean huffman : new boolean[] { false, true }) {
+                for (int window : new int[] { 16, 4096, Lz77OutputStream.WINDOW_SIZE }) {
+                    roundTrip(text, window, parse, huffman, "text");
+                }
+                roundTrip(binary, Lz77OutputStream.WINDOW_SIZE, parse, huffman, "random bytes");
+            }
+        }
+        System.out.println("Test 2 completed: every parse with and without Huffman tags");
+    }
+
+    // Blocks smaller than the input with a short last one, with and without
+    // the window before each block as its dictionary
+    private static void testBlocks() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            byte[] data = text(300000, new Random(6));
+            for (boolean primed : new boolean[] { false, true }) {
+                for (int blockSize : new int[] { 1000, 64 * 1024, data.length + 1 }) {
+                    byte[] frames = Lz77Blocks.compress(data, blockSize, primed, pool);
+                    assertEquals(data, Lz77Blocks.decompress(frames, pool),
+                            "blocks of " + blockSize + (primed ? ", primed" : ""));
+                }
+                byte[] empty = Lz77Blocks.compress(new byte[0], 1000, primed, pool);
+                assertEquals(new byte[0], Lz77Blocks.decompress(empty, pool),
+                        "empty input in blocks" + (primed ? ", primed" : ""));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Test 3 completed: plain and primed blocks");
+    }
+
+    // Words with a few random bytes between them, so there are matches of
+    // every length and literals in between
+    private static byte[] text(int length, Random random) {
+        String[] words = { "the ", "quick ", "brown ", "fox ", "jumps ", "over ", "the lazy dog. ", "compression " };
+        ByteArrayOutputStream text = new ByteArrayOutputStream(length + 16);
+        while (text.size() < length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            text.write(word, 0, word.length);
+            if (random.nextInt(8) == 0)
+                text.write(random.nextInt(256));
+        }
+        return Arrays.copyOf(text.toByteArray(), length);
+    }
+
+    private static void roundTrip(byte[] data, int window, Lz77OutputStream.Parse parse, boolean huffman,
+            String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Lz77OutputStream out = new Lz77OutputStream(bytes, window, Lz77OutputStream.MAX_CHAIN, parse,
+                huffman)) {
+            out.write(data);
+        }
+        byte[] decoded;
+        try (Lz77InputStream in = new Lz77InputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            decoded = in.readAllBytes();
+        }
+        assertEquals(data, decoded, name + " with " + parse + (huffman ? " and Huffman" : "") + ", window "
+                + window);
+    }
+
+    private static void assertEquals(byte[] expected, byte[] actual, String message) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError(message);
+        }
+    }
+}
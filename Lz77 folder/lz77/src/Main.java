@@ -1,44 +1,218 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
+    static final long MAP_SEGMENT = 1L << 30;
+    // The window of the original scan, which benchmark() reports against
+    static final int SCAN_WINDOW = 30;
+
     public static void main(String[] args) throws IOException {
+        // Filter mode for pipes: java Main -c [greedy|lazy|optimal] [huffman] < in > out,
+        // java Main -d < in > out
+        if (args.length >= 1 && (args[0].equals("-c") || args[0].equals("-d"))) {
+            if (args[0].equals("-c")) {
+                Lz77OutputStream.Parse parse = Lz77OutputStream.Parse.GREEDY;
+                if (args.length > 1) {
+                    try {
+                        parse = Lz77OutputStream.Parse.valueOf(args[1].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        // stdout carries the compressed data, so the usage goes to stderr
+                        System.err.println("Usage: java Main -c [greedy|lazy|optimal] [huffman] < in > out,"
+                                + " java Main -d < in > out");
+                        return;
+                    }
+                }
+                boolean huffman = args.length > 2 && args[2].equalsIgnoreCase("huffman");
+                try (OutputStream out = new Lz77OutputStream(new BufferedOutputStream(System.out),
+                        Lz77OutputStream.WINDOW_SIZE, Lz77OutputStream.MAX_CHAIN, parse, huffman)) {
+                    copy(System.in, out);
+                }
+            } else {
+                try (InputStream in = new Lz77InputStream(System.in)) {
+                    copy(in, System.out);
+                }
+                System.out.flush();
+            }
+            return;
+        }
+
         BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
-        System.out.println("Compress or decompress? (c/d)");
+        System.out.println("Compress, decompress, block compress, block decompress, train dictionary, benchmark"
+                + " or record benchmark? (c/d/pc/pd/t/b/r)");
         String answer = userInput.readLine().toLowerCase();
 
         if (answer.equals("c")) {
             doCompress("C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/plain.txt",
-                    "C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/src/output.txt");
+                    "C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/src/output.bin");
         } else if (answer.equals("d")) {
-            doDecompress("C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/src/output.txt",
+            doDecompress("C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/src/output.bin",
                     "C:/Users/admin/Desktop/DSAI 325 – Assignment 1 -Mohamed darwish-202201273/lz77/plain.txt");
+        } else if (answer.equals("pc") || answer.equals("pd")) {
+            System.out.println("Enter input file path:");
+            String inputFile = userInput.readLine();
+            System.out.println("Enter output file path:");
+            String outputFile = userInput.readLine();
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            if (answer.equals("pc")) {
+                System.out.println("Prime each block with the window before it? (y/n)");
+                boolean primed = userInput.readLine().trim().equalsIgnoreCase("y");
+                Lz77Blocks.compressFile(inputFile, outputFile, Lz77Blocks.BLOCK_SIZE, primed, pool);
+            } else {
+                Lz77Blocks.decompressFile(inputFile, outputFile, pool);
+            }
+        } else if (answer.equals("b")) {
+            System.out.println("Enter input file path:");
+            String inputFile = userInput.readLine();
+            System.out.println("Enter window size:");
+            int window = Integer.parseInt(userInput.readLine().trim());
+            benchmark(inputFile, window);
+        } else if (answer.equals("t")) {
+            System.out.println("Enter sample directory:");
+            String sampleDirectory = userInput.readLine();
+            System.out.println("Enter dictionary file path:");
+            String dictionaryFile = userInput.readLine();
+            byte[] dictionary = DictionaryTrainer.train(sampleDirectory, DictionaryTrainer.DICTIONARY_SIZE);
+            Files.write(Paths.get(dictionaryFile), dictionary);
+            System.out.println("Dictionary size: " + dictionary.length + " bytes");
+        } else if (answer.equals("r")) {
+            System.out.println("Enter record directory:");
+            benchmarkRecords(userInput.readLine());
         } else {
-            System.out.println("Just type c or d!");
+            System.out.println("Just type c, d, pc, pd, t, b or r!");
         }
     }
 
     public static void doCompress(String readFile, String writeFile) throws IOException {
-        FileReader fileIn = new FileReader(readFile);
-        FileWriter fileOut = new FileWriter(writeFile);
+        doCompress(readFile, writeFile, Lz77OutputStream.WINDOW_SIZE, Lz77OutputStream.MAX_CHAIN,
+                Lz77OutputStream.Parse.GREEDY);
+    }
+
+    public static void doCompress(String readFile, String writeFile, int window, int maxChain,
+            Lz77OutputStream.Parse parse) throws IOException {
+        doCompress(readFile, writeFile, window, maxChain, parse, false);
+    }
+
+    public static void doCompress(String readFile, String writeFile, byte[] dictionary) throws IOException {
+        doCompress(readFile, writeFile, Lz77OutputStream.WINDOW_SIZE, Lz77OutputStream.MAX_CHAIN,
+                Lz77OutputStream.Parse.GREEDY, false, dictionary);
+    }
+
+    public static void doCompress(String readFile, String writeFile, int window, int maxChain,
+            Lz77OutputStream.Parse parse, boolean huffman) throws IOException {
+        doCompress(readFile, writeFile, window, maxChain, parse, huffman, null);
+    }
+
+    // A preset dictionary is loaded into the window before the first byte; the
+    // same dictionary must be given to doDecompress.
+    public static void doCompress(String readFile, String writeFile, int window, int maxChain,
+            Lz77OutputStream.Parse parse, boolean huffman, byte[] dictionary) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ)) {
+            long originalLength = fileIn.size();
+            System.out.println("Original size: " + originalLength * 8 + " bits");
+            System.out.println("Original length: " + originalLength);
+
+            // A window larger than the file and dictionary only widens the distance field
+            int dictionaryLength = dictionary != null ? dictionary.length : 0;
+            window = (int) Math.max(1, Math.min(window, originalLength + dictionaryLength));
+
+            // Map the file a segment at a time; bytes go to the window with no decoding
+            try (Lz77OutputStream fileOut = new Lz77OutputStream(
+                    new BufferedOutputStream(new FileOutputStream(writeFile)), window, maxChain, parse, huffman)) {
+                if (dictionaryLength > 0)
+                    fileOut.setDictionary(dictionary, 0, dictionaryLength);
+                for (long offset = 0; offset < originalLength; offset += MAP_SEGMENT) {
+                    long size = Math.min(MAP_SEGMENT, originalLength - offset);
+                    fileOut.write(fileIn.map(FileChannel.MapMode.READ_ONLY, offset, size));
+                }
+            }
+        }
+        System.out.println("Compressed size: " + new File(writeFile).length() * 8 + " bits");
+    }
+
+    public static void doDecompress(String readFile, String writeFile) throws IOException {
+        doDecompress(readFile, writeFile, null);
+    }
+
+    public static void doDecompress(String readFile, String writeFile, byte[] dictionary) throws IOException {
+        try (Lz77InputStream fileIn = new Lz77InputStream(new BufferedInputStream(new FileInputStream(readFile)));
+                OutputStream fileOut = new FileOutputStream(writeFile)) {
+            if (dictionary != null)
+                fileIn.setDictionary(dictionary, 0, dictionary.length);
+            copy(fileIn, fileOut);
+        }
+    }
+
+    public static byte[] compress(byte[] data) throws IOException {
+        return compress(ByteBuffer.wrap(data));
+    }
+
+    public static byte[] compress(ByteBuffer data) throws IOException {
+        return compress(data, (Lz77Dictionary) null);
+    }
+
+    // For small records: the dictionary gives the first bytes something to match
+    public static byte[] compress(byte[] data, byte[] dictionary) throws IOException {
+        return compress(ByteBuffer.wrap(data), dictionary);
+    }
+
+    public static byte[] compress(ByteBuffer data, byte[] dictionary) throws IOException {
+        return compress(data, dictionary != null ? new Lz77Dictionary(dictionary) : null);
+    }
+
+    // Prepare the dictionary once and reuse it for every record
+    public static byte[] compress(byte[] data, Lz77Dictionary dictionary) throws IOException {
+        return compress(ByteBuffer.wrap(data), dictionary);
+    }
+
+    public static byte[] compress(ByteBuffer data, Lz77Dictionary dictionary) throws IOException {
+        int dictionaryLength = dictionary != null ? dictionary.getBytes().length : 0;
+        int window = Math.max(1, Math.min(Lz77OutputStream.WINDOW_SIZE, data.remaining() + dictionaryLength));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.remaining() / 2 + 16);
+        try (Lz77OutputStream out = new Lz77OutputStream(bytes, window, Lz77OutputStream.MAX_CHAIN,
+                Lz77OutputStream.Parse.GREEDY)) {
+            if (dictionaryLength > 0)
+                out.setDictionary(dictionary);
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] decompress(byte[] compressed) throws IOException {
+        return decompress(compressed, null);
+    }
 
-        StringBuilder inputData = new StringBuilder();
-        int c;
-        while ((c = fileIn.read()) != -1) {
-            inputData.append((char) c);
+    public static byte[] decompress(byte[] compressed, byte[] dictionary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 3);
+        try (Lz77InputStream in = new Lz77InputStream(new ByteArrayInputStream(compressed))) {
+            if (dictionary != null)
+                in.setDictionary(dictionary, 0, dictionary.length);
+            copy(in, bytes);
         }
+        return bytes.toByteArray();
+    }
 
-        int originalBits = inputData.length() * 8;
-        System.out.println("Original size: " + originalBits + " bits");
-        System.out.println("Original length: " + inputData.length());
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
+    }
 
-        int window = 30;
+    // The original brute-force scan: every offset in the window is tried at each
+    // position. Kept as the baseline for benchmark().
+    static long[] compressTagsByScan(byte[] inputData, int window) {
         int pos = 0;
         int biggestDistance = 0;
         int biggestLength = 0;
-        int tagCounter = 0;
+        long tagCounter = 0;
 
-        while (pos < inputData.length()) {
+        while (pos < inputData.length) {
             int bestDist = 0;
             int bestLen = 0;
 
@@ -46,8 +220,8 @@ public class Main {
             for (int back = Math.max(0, pos - window); back < pos; back++) {
                 int currentLen = 0;
                 while (currentLen < window &&
-                        pos + currentLen < inputData.length() &&
-                        inputData.charAt(back + currentLen) == inputData.charAt(pos + currentLen)) {
+                        pos + currentLen < inputData.length &&
+                        inputData[back + currentLen] == inputData[pos + currentLen]) {
                     currentLen++;
                 }
                 if (currentLen > bestLen) {
@@ -56,58 +230,206 @@ public class Main {
                 }
             }
 
-            // Update biggest values
             if (bestDist > biggestDistance)
                 biggestDistance = bestDist;
             if (bestLen > biggestLength)
                 biggestLength = bestLen;
 
-            // Write tag
-            if (bestLen > 0) {
-                char nextChar = pos + bestLen < inputData.length() ? inputData.charAt(pos + bestLen) : ' ';
-                fileOut.write("(" + bestDist + "," + bestLen + "," + nextChar + ")\n");
-                pos += bestLen + 1;
-            } else {
-                fileOut.write("(0,0," + inputData.charAt(pos) + ")\n");
-                pos++;
-            }
+            pos += bestLen + 1;
             tagCounter++;
         }
+        return new long[] { tagCounter, biggestDistance, biggestLength };
+    }
+
+    // Compressed size calculation
+    private static long compressedBits(long[] stats) {
+        int bitsForDistance = Long.toBinaryString(stats[1]).length();
+        int bitsForLength = Long.toBinaryString(stats[2]).length();
+        return (bitsForDistance + bitsForLength + 8) * stats[0];
+    }
+
+    public static void benchmark(String readFile, int window) throws IOException {
+        byte[] inputData = Files.readAllBytes(Paths.get(readFile));
+        System.out.println("Input: " + inputData.length + " bytes, window " + window);
+
+        // Warm up the JIT on a prefix so the timings compare compiled code
+        byte[] warmUp = java.util.Arrays.copyOf(inputData, Math.min(inputData.length, 1 << 16));
+        compressTagsByScan(warmUp, SCAN_WINDOW);
+        for (Lz77OutputStream.Parse parse : Lz77OutputStream.Parse.values()) {
+            compressedBits(warmUp, window, Lz77OutputStream.MAX_CHAIN, parse, false);
+            compressedBits(warmUp, window, Lz77OutputStream.MAX_CHAIN, parse, true);
+        }
+
+        long start = System.nanoTime();
+        long[] stats = compressTagsByScan(inputData, SCAN_WINDOW);
+        printBenchmark("scan window " + SCAN_WINDOW, inputData.length, compressedBits(stats),
+                System.nanoTime() - start);
+
+        for (int maxChain : new int[] { 8, 32, 128, 1024 }) {
+            for (Lz77OutputStream.Parse parse : Lz77OutputStream.Parse.values()) {
+                start = System.nanoTime();
+                long bits = compressedBits(inputData, window, maxChain, parse, false);
+                printBenchmark("chain " + maxChain + " " + parse.name().toLowerCase(), inputData.length, bits,
+                        System.nanoTime() - start);
+            }
+        }
+
+        // The same tags entropy coded
+        for (Lz77OutputStream.Parse parse : Lz77OutputStream.Parse.values()) {
+            start = System.nanoTime();
+            long bits = compressedBits(inputData, window, Lz77OutputStream.MAX_CHAIN, parse, true);
+            printBenchmark("huffman " + parse.name().toLowerCase(), inputData.length, bits,
+                    System.nanoTime() - start);
+        }
+
+        // Decoders on the greedy output: the old byte-at-a-time loop, the stream,
+        // and a preallocated array
+        byte[] compressed = compress(inputData);
+        byte[] output = new byte[inputData.length];
+        decompressByteByByte(compressed);
+        decompress(compressed);
+        for (int i = 0; i < 3; i++) {
+            start = System.nanoTime();
+            decompressByteByByte(compressed);
+            long byteNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            decompress(compressed);
+            long streamNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            try (Lz77InputStream in = new Lz77InputStream(new ByteArrayInputStream(compressed))) {
+                in.readFully(output, 0, output.length);
+            }
+            long arrayNanos = System.nanoTime() - start;
+            System.out.printf("decompress             byte loop: %.2f MB/s, stream: %.2f MB/s, array: %.2f MB/s%n",
+                    inputData.length / (byteNanos / 1e9) / (1 << 20),
+                    inputData.length / (streamNanos / 1e9) / (1 << 20),
+                    inputData.length / (arrayNanos / 1e9) / (1 << 20));
+        }
+        ByteArrayOutputStream huffmanBytes = new ByteArrayOutputStream();
+        try (Lz77OutputStream out = new Lz77OutputStream(huffmanBytes, window, Lz77OutputStream.MAX_CHAIN,
+                Lz77OutputStream.Parse.GREEDY, true)) {
+            out.write(inputData);
+        }
+        byte[] huffmanCompressed = huffmanBytes.toByteArray();
+        for (int i = 0; i < 3; i++) {
+            start = System.nanoTime();
+            try (Lz77InputStream in = new Lz77InputStream(new ByteArrayInputStream(huffmanCompressed))) {
+                in.readFully(output, 0, output.length);
+            }
+            System.out.printf("decompress huffman     array: %.2f MB/s%n",
+                    inputData.length / ((System.nanoTime() - start) / 1e9) / (1 << 20));
+        }
 
-        // Compressed size calculation
-        int bitsForDistance = Integer.toBinaryString(biggestDistance).length();
-        int bitsForLength = Integer.toBinaryString(biggestLength).length();
-        int compressedBits = (bitsForDistance + bitsForLength + 8) * tagCounter;
-        System.out.println("Compressed size: " + compressedBits + " bits");
+        // Block mode with 1 MB blocks, from one thread up to every core
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            for (boolean primed : new boolean[] { false, true }) {
+                start = System.nanoTime();
+                byte[] frames = Lz77Blocks.compress(inputData, Lz77Blocks.BLOCK_SIZE, primed, pool);
+                long compressNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                Lz77Blocks.decompress(frames, pool);
+                long decompressNanos = System.nanoTime() - start;
+                printBenchmark("blocks " + threads + "t" + (primed ? " primed" : ""), inputData.length,
+                        frames.length * 8L, compressNanos);
+                System.out.printf("%-22s decompress: %.2f MB/s%n", "",
+                        inputData.length / (decompressNanos / 1e9) / (1 << 20));
+            }
+            pool.shutdown();
+        }
+    }
+
+    // Trains a dictionary on every other record, then compresses the rest one
+    // record at a time with and without it.
+    public static void benchmarkRecords(String directory) throws IOException {
+        List<byte[]> training = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory))) {
+            for (Path file : files) {
+                (training.size() <= records.size() ? training : records).add(Files.readAllBytes(file));
+            }
+        }
+        long start = System.nanoTime();
+        byte[] dictionary = DictionaryTrainer.train(training, DictionaryTrainer.DICTIONARY_SIZE);
+        System.out.printf("Dictionary: %d bytes from %d records in %.1f ms%n", dictionary.length, training.size(),
+                (System.nanoTime() - start) / 1e6);
 
-        fileIn.close();
-        fileOut.close();
+        Lz77Dictionary prepared = new Lz77Dictionary(dictionary);
+        for (byte[] preset : new byte[][] { null, dictionary }) {
+            String name = preset == null ? "no dictionary" : "dictionary";
+            // Warm-up pass, then the timed one
+            for (int pass = 0; pass < 2; pass++) {
+                long originalBytes = 0;
+                long compressedBytes = 0;
+                long compressNanos = 0;
+                long decompressNanos = 0;
+                for (byte[] record : records) {
+                    start = System.nanoTime();
+                    byte[] compressed = preset == null ? compress(record) : compress(record, prepared);
+                    compressNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    byte[] back = decompress(compressed, preset);
+                    decompressNanos += System.nanoTime() - start;
+                    if (!Arrays.equals(record, back))
+                        throw new IOException("Record did not round trip");
+                    originalBytes += record.length;
+                    compressedBytes += compressed.length;
+                }
+                if (pass == 1)
+                    System.out.printf("%-22s ratio: %.2f:1, compress: %.1f us/record, decompress: %.1f us/record%n",
+                            name, (double) originalBytes / compressedBytes, compressNanos / 1e3 / records.size(),
+                            decompressNanos / 1e3 / records.size());
+            }
+        }
     }
 
-    public static void doDecompress(String readFile, String writeFile) throws IOException {
-        BufferedReader fileIn = new BufferedReader(new FileReader(readFile));
-        FileWriter fileOut = new FileWriter(writeFile);
-        StringBuilder result = new StringBuilder();
-
-        String line;
-        while ((line = fileIn.readLine()) != null) {
-            line = line.replace("(", "").replace(")", "");
-            String[] parts = line.split(",");
-            int d = Integer.parseInt(parts[0]);
-            int l = Integer.parseInt(parts[1]);
-            char ch = parts[2].charAt(0);
-
-            if (d > 0) {
-                int start = result.length() - d;
+    // The decoder before bulk copies: every tag read field by field and every
+    // match copied one byte at a time. Kept as the baseline for benchmark().
+    static byte[] decompressByteByByte(byte[] compressed) throws IOException {
+        byte[] result = new byte[1024];
+        int length = 0;
+        try (BitReader in = new BitReader(new ByteArrayInputStream(compressed))) {
+            in.readBits(16);
+            int bitsForDistance = (int) in.readBits(8);
+            int bitsForLength = (int) in.readBits(8);
+            while (true) {
+                long d = in.readBits(bitsForDistance);
+                long l = in.readBits(bitsForLength);
+                long ch = in.readBits(8);
+                if (d < 0 || l < 0 || ch < 0)
+                    break;
+                if (length + l + 1 > result.length)
+                    result = java.util.Arrays.copyOf(result, 2 * result.length + (int) l);
+                int start = length - (int) d;
                 for (int i = 0; i < l; i++) {
-                    result.append(result.charAt(start + i));
+                    result[length++] = result[start + i];
                 }
+                result[length++] = (byte) ch;
             }
-            result.append(ch);
         }
+        return java.util.Arrays.copyOf(result, length);
+    }
+
+    private static long compressedBits(byte[] inputData, int window, int maxChain, Lz77OutputStream.Parse parse,
+            boolean huffman) throws IOException {
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        Lz77OutputStream out = new Lz77OutputStream(discard, window, maxChain, parse, huffman);
+        out.write(inputData);
+        out.close();
+        return out.getBitsWritten();
+    }
 
-        fileOut.write(result.toString());
-        fileIn.close();
-        fileOut.close();
+    private static void printBenchmark(String name, int length, long bits, long nanos) {
+        double ratio = bits > 0 ? (length * 8.0) / bits : 0;
+        double mbPerSecond = length / (nanos / 1e9) / (1 << 20);
+        System.out.printf("%-22s compressed: %d bits, ratio: %.2f:1, %.2f MB/s%n", name, bits, ratio, mbPerSecond);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+// Hash-chain match finder: positions are chained by the hash of their first
+// three bytes, so only earlier positions that can actually match are tried.
+// Matches shorter than three bytes still save a tag, so the most recent
+// position of every one- and two-byte prefix is kept as well.
+//
+// Hash tables are sized to the window, so a finder for a small record is cheap
+// to set up. The finder works on a buffer owned by the caller. When the caller moves the
+// buffer contents down by the window size, slide() moves the positions too.
+public class MatchFinder {
+    private static final int MIN_HASH_BITS = 10;
+    private static final int MAX_HASH_BITS = 16;
+    public static final int MIN_MATCH = 3;
+
+    private final byte[] data;
+    private final int window;
+    private final int maxMatch;
+    private final int maxChain;
+    private final int hashBits;
+    private final int[] head;
+    private final int[] prev;
+    private final int[] last1;
+    private final int[] last2;
+
+    private int matchLength;
+    private int matchDistance;
+
+    public MatchFinder(byte[] data, int window, int maxMatch, int maxChain) {
+        this.data = data;
+        this.window = window;
+        this.maxMatch = maxMatch;
+        this.maxChain = maxChain;
+        this.hashBits = Math.max(MIN_HASH_BITS, Math.min(MAX_HASH_BITS, 32 - Integer.numberOfLeadingZeros(window)));
+        this.head = new int[1 << hashBits];
+        this.prev = new int[window];
+        this.last1 = new int[1 << 8];
+        this.last2 = new int[1 << hashBits];
+        java.util.Arrays.fill(head, -1);
+        java.util.Arrays.fill(last1, -1);
+        java.util.Arrays.fill(last2, -1);
+    }
+
+    // Starts from the tables of a finder that has inserted positions [0, n) of
+    // the same bytes, e.g. a prepared dictionary. Both windows must be at
+    // least n so the chain links of those positions sit at the same index.
+    public MatchFinder(byte[] data, int window, int maxMatch, int maxChain, MatchFinder preset, int n) {
+        if (n > window || n > preset.window)
+            throw new IllegalArgumentException("Window smaller than the preset positions");
+        this.data = data;
+        this.window = window;
+        this.maxMatch = maxMatch;
+        this.maxChain = maxChain;
+        this.hashBits = preset.hashBits;
+        this.head = preset.head.clone();
+        this.prev = new int[window];
+        this.last1 = preset.last1.clone();
+        this.last2 = preset.last2.clone();
+        System.arraycopy(preset.prev, 0, prev, 0, n);
+    }
+
+    private int hash(int pos) {
+        int h = (data[pos] & 0xFF) << 16 | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF);
+        return (h * 0x9E3779B1) >>> (32 - hashBits);
+    }
+
+    // The two-byte prefix itself, folded down when the table is smaller
+    private int prefix2(int pos) {
+        int p = (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+        return (p ^ (p >>> hashBits)) & ((1 << hashBits) - 1);
+    }
+
+    // Adds pos to its hash chain; call once for every position below end, in order.
+    public void insert(int pos, int end) {
+        if (pos >= end)
+            return;
+        last1[data[pos] & 0xFF] = pos;
+        if (pos + 2 <= end)
+            last2[prefix2(pos)] = pos;
+        if (pos + MIN_MATCH > end)
+            return;
+        int h = hash(pos);
+        prev[pos % window] = head[h];
+        head[h] = pos;
+    }
+
+    // Finds the longest match for pos that is at most limit bytes long; the
+    // caller guarantees pos + limit is inside its buffer.
+    // Only the first maxChain candidates of the chain are tried.
+    public int findMatch(int pos, int limit) {
+        matchLength = 0;
+        matchDistance = 0;
+        limit = Math.min(limit, maxMatch);
+        if (limit <= 0)
+            return 0;
+
+        if (limit >= MIN_MATCH) {
+            int candidate = head[hash(pos)];
+            int chain = maxChain;
+            while (candidate >= 0 && pos - candidate <= window && chain-- > 0) {
+                if (data[candidate + matchLength] == data[pos + matchLength])
+                    tryCandidate(pos, candidate, limit);
+                if (matchLength == limit)
+                    return matchLength;
+                int next = prev[candidate % window];
+                if (next >= candidate)
+                    break;
+                candidate = next;
+            }
+            if (matchLength >= MIN_MATCH)
+                return matchLength;
+        }
+
+        if (limit >= 2)
+            tryCandidate(pos, last2[prefix2(pos)], limit);
+        if (matchLength == 0)
+            tryCandidate(pos, last1[data[pos] & 0xFF], limit);
+        return matchLength;
+    }
+
+    // Collects every match for pos that is longer than all nearer ones, up to
+    // limit bytes. lengths come out increasing, each with its nearest distance;
+    // once the arrays are full a longer match replaces the last one, so the
+    // longest match is always there. Returns the number of matches stored.
+    public int findMatches(int pos, int limit, int[] lengths, int[] distances) {
+        return findMatches(pos, limit, lengths, distances, 0, 0, maxChain);
+    }
+
+    // The same, given that knownLength bytes match at knownDistance (e.g. the
+    // rest of a match found earlier), trying the first maxChain candidates of
+    // the chain. Only matches longer than the known one are searched for.
+    public int findMatches(int pos, int limit, int[] lengths, int[] distances, int knownLength, int knownDistance,
+            int maxChain) {
+        int count = 0;
+        matchLength = 0;
+        matchDistance = 0;
+        limit = Math.min(limit, maxMatch);
+        if (limit <= 0)
+            return 0;
+
+        // Short matches first: they are usually closer than the chain's best.
+        // They may run on past their prefix, as in findMatch.
+        tryCandidate(pos, last1[data[pos] & 0xFF], limit);
+        if (matchLength > 0) {
+            lengths[count] = matchLength;
+            distances[count++] = matchDistance;
+        }
+        if (limit >= 2) {
+            tryCandidate(pos, last2[prefix2(pos)], limit);
+            if (matchLength > (count > 0 ? lengths[count - 1] : 0)) {
+                lengths[count] = matchLength;
+                distances[count++] = matchDistance;
+            }
+        }
+        knownLength = Math.min(knownLength, limit);
+        if (knownLength > matchLength) {
+            matchLength = knownLength;
+            matchDistance = knownDistance;
+            lengths[count] = matchLength;
+            distances[count++] = matchDistance;
+        }
+
+        if (limit >= MIN_MATCH && matchLength < limit) {
+            int candidate = head[hash(pos)];
+            int chain = maxChain;
+            while (candidate >= 0 && pos - candidate <= window && chain-- > 0) {
+                if (data[candidate + matchLength] == data[pos + matchLength]) {
+                    tryCandidate(pos, candidate, limit);
+                    if (matchLength > (count > 0 ? lengths[count - 1] : 0)) {
+                        if (count == lengths.length)
+                            count--;
+                        lengths[count] = matchLength;
+                        distances[count++] = matchDistance;
+                    }
+                }
+                if (matchLength == limit)
+                    break;
+                int next = prev[candidate % window];
+                if (next >= candidate)
+                    break;
+                candidate = next;
+            }
+        }
+        return count;
+    }
+
+    private void tryCandidate(int pos, int candidate, int limit) {
+        if (candidate < 0 || pos - candidate > window)
+            return;
+        int len = 0;
+        while (len < limit && data[candidate + len] == data[pos + len]) {
+            len++;
+        }
+        if (len > matchLength) {
+            matchLength = len;
+            matchDistance = pos - candidate;
+        }
+    }
+
+    // The caller moved its buffer contents down by window bytes.
+    public void slide() {
+        slide(head);
+        slide(prev);
+        slide(last1);
+        slide(last2);
+    }
+
+    private void slide(int[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            int p = positions[i] - window;
+            positions[i] = p >= 0 ? p : -1;
+        }
+    }
+
+    public int getMatchLength() { return matchLength; }
+    public int getMatchDistance() { return matchDistance; }
+}
@@ -0,0 +1,38 @@
+import java.io.*;
+
+// Reads values written by BitWriter, most significant bit first.
+public class BitReader implements Closeable {
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPos;
+    private int bufferLimit;
+    private long bitBuffer;
+    private int bitCount;
+
+    public BitReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Returns the next count bits (at most 32), or -1 if the stream ends first.
+    public long readBits(int count) throws IOException {
+        while (bitCount < count) {
+            if (bufferPos == bufferLimit) {
+                bufferLimit = in.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    return -1;
+                }
+            }
+            bitBuffer = (bitBuffer << 8) | (buffer[bufferPos++] & 0xFF);
+            bitCount += 8;
+        }
+        bitCount -= count;
+        return (bitBuffer >>> bitCount) & (-1L >>> (64 - count));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.*;
+
+// Packs values of up to 32 bits into bytes, most significant bit first.
+public class BitWriter implements Closeable {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPos;
+    private long bitBuffer;
+    private int bitCount;
+    private long bitsWritten;
+
+    public BitWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void writeBits(int value, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | (value & (-1L >>> (64 - count)));
+        bitCount += count;
+        bitsWritten += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            if (bufferPos == buffer.length) {
+                out.write(buffer, 0, bufferPos);
+                bufferPos = 0;
+            }
+            buffer[bufferPos++] = (byte) (bitBuffer >>> bitCount);
+        }
+    }
+
+    // Pads the last byte with zero bits so the stream ends on a byte boundary.
+    public void alignToByte() throws IOException {
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+    }
+
+    // Hands every complete byte to the stream; bits of a partial byte stay here.
+    public void flush() throws IOException {
+        out.write(buffer, 0, bufferPos);
+        bufferPos = 0;
+        out.flush();
+    }
+
+    public long getBitsWritten() {
+        return bitsWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        alignToByte();
+        flush();
+        out.close();
+    }
+}
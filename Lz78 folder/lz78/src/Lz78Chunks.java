@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Chunked LZ78. The input is cut into fixed-size chunks, and every chunk is
+// compressed on a ForkJoinPool with a dictionary of its own into a complete
+// LZ78 stream (the same format compress() writes). Layout:
+//
+//   magic "LC", chunk size, chunk count, original length
+//   frame 0 .. frame n-1
+//   chunk index: compressed length of every frame
+//   offset of the chunk index
+//
+// Frames share nothing, so they decode in parallel, and readChunk() decodes
+// one chunk without touching the others. Every chunk starts with an empty
+// dictionary, which costs ratio; smaller chunks cost more.
+public class Lz78Chunks {
+    public static final int MAGIC = 0x4C43; // "LC"
+    public static final int CHUNK_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 18;
+
+    // Hands out a view of part of the input; chunks may be read from any thread.
+    private interface ChunkSource {
+        ByteBuffer slice(long offset, int length) throws IOException;
+    }
+
+    // Receives decoded chunks; chunks may arrive from any thread, in any order.
+    private interface ChunkSink {
+        void write(long offset, byte[] chunk) throws IOException;
+    }
+
+    public static void compressFile(String readFile, String writeFile, int chunkSize, ForkJoinPool pool)
+            throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ);
+                OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(writeFile))) {
+            compress((offset, length) -> fileIn.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                    fileIn.size(), fileOut, chunkSize, pool);
+        }
+    }
+
+    public static byte[] compress(byte[] data, int chunkSize, ForkJoinPool pool) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+        compress((offset, length) -> ByteBuffer.wrap(data, (int) offset, length), data.length, bytes, chunkSize,
+                pool);
+        return bytes.toByteArray();
+    }
+
+    private static void compress(ChunkSource source, long length, OutputStream out, int chunkSize,
+            ForkJoinPool pool) throws IOException {
+        int chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(MAGIC);
+        dataOut.writeInt(chunkSize);
+        dataOut.writeInt(chunkCount);
+        dataOut.writeLong(length);
+
+        // Frames are written in order as they finish; only a few chunks per
+        // thread are in flight so memory stays bounded on large inputs.
+        int[] frameLengths = new int[chunkCount];
+        long indexOffset = HEADER_SIZE;
+        int maxInFlight = 2 * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            while (next < chunkCount && inFlight.size() < maxInFlight) {
+                long offset = (long) next++ * chunkSize;
+                int chunkLength = (int) Math.min(chunkSize, length - offset);
+                inFlight.add(pool.submit(() -> compressChunk(source.slice(offset, chunkLength))));
+            }
+            byte[] frame = join(inFlight.poll());
+            frameLengths[i] = frame.length;
+            indexOffset += frame.length;
+            dataOut.write(frame);
+        }
+
+        for (int frameLength : frameLengths) {
+            dataOut.writeInt(frameLength);
+        }
+        dataOut.writeLong(indexOffset);
+        dataOut.flush();
+    }
+
+    // One chunk as a standalone LZ78 stream with its own dictionary
+    static byte[] compressChunk(ByteBuffer chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunk.remaining() / 2 + 16);
+        Main.compress(chunk, bytes, 0, null);
+        return bytes.toByteArray();
+    }
+
+    public static void decompressFile(String readFile, String writeFile, ForkJoinPool pool) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ);
+                FileChannel fileOut = FileChannel.open(Paths.get(writeFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            decompress((offset, length) -> fileIn.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                    fileIn.size(), (offset, chunk) -> {
+                        ByteBuffer src = ByteBuffer.wrap(chunk);
+                        while (src.hasRemaining()) {
+                            fileOut.write(src, offset + src.position());
+                        }
+                    }, pool);
+        }
+    }
+
+    public static byte[] decompress(byte[] compressed, ForkJoinPool pool) throws IOException {
+        long length = ByteBuffer.wrap(compressed).getLong(HEADER_SIZE - 8);
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Too large for a byte array: " + length);
+        byte[] result = new byte[(int) length];
+        decompress((offset, len) -> ByteBuffer.wrap(compressed, (int) offset, len), compressed.length,
+                (offset, chunk) -> System.arraycopy(chunk, 0, result, (int) offset, chunk.length), pool);
+        return result;
+    }
+
+    private static void decompress(ChunkSource source, long compressedLength, ChunkSink sink, ForkJoinPool pool)
+            throws IOException {
+        Index index = readIndex(source, compressedLength);
+        ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<>();
+        for (int i = 0; i < index.chunkCount; i++) {
+            int chunk = i;
+            tasks.add(pool.submit(() -> {
+                sink.write((long) chunk * index.chunkSize, decompressChunk(source, index, chunk));
+                return null;
+            }));
+        }
+        while (!tasks.isEmpty()) {
+            join(tasks.poll());
+        }
+    }
+
+    // Random access: decodes chunk number chunk alone, i.e. the original bytes
+    // from chunk * chunkSize on.
+    public static byte[] readChunk(byte[] compressed, int chunk) throws IOException {
+        ChunkSource source = (offset, len) -> ByteBuffer.wrap(compressed, (int) offset, len);
+        return decompressChunk(source, readIndex(source, compressed.length), chunk);
+    }
+
+    public static byte[] readChunk(String readFile, int chunk) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(readFile), StandardOpenOption.READ)) {
+            ChunkSource source = (offset, length) -> fileIn.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            return decompressChunk(source, readIndex(source, fileIn.size()), chunk);
+        }
+    }
+
+    private static class Index {
+        int chunkSize;
+        int chunkCount;
+        long length;
+        long[] frameOffsets;
+        int[] frameLengths;
+    }
+
+    private static Index readIndex(ChunkSource source, long compressedLength) throws IOException {
+        ByteBuffer header = source.slice(0, HEADER_SIZE);
+        if ((header.getShort() & 0xFFFF) != MAGIC)
+            throw new IOException("Not a chunked LZ78 stream");
+        Index index = new Index();
+        index.chunkSize = header.getInt();
+        index.chunkCount = header.getInt();
+        index.length = header.getLong();
+
+        long indexOffset = source.slice(compressedLength - 8, 8).getLong();
+        ByteBuffer lengths = source.slice(indexOffset, 4 * index.chunkCount);
+        index.frameOffsets = new long[index.chunkCount];
+        index.frameLengths = new int[index.chunkCount];
+        long frameOffset = HEADER_SIZE;
+        for (int i = 0; i < index.chunkCount; i++) {
+            index.frameOffsets[i] = frameOffset;
+            index.frameLengths[i] = lengths.getInt();
+            frameOffset += index.frameLengths[i];
+        }
+        return index;
+    }
+
+    private static byte[] decompressChunk(ChunkSource source, Index index, int chunk) throws IOException {
+        if (chunk < 0 || chunk >= index.chunkCount)
+            throw new IndexOutOfBoundsException("No chunk " + chunk + " of " + index.chunkCount);
+        int frameLength = index.frameLengths[chunk];
+        byte[] data = Main.decompress(new ByteBufferInputStream(source.slice(index.frameOffsets[chunk], frameLength)),
+                frameLength);
+        long expected = Math.min(index.chunkSize, index.length - (long) chunk * index.chunkSize);
+        if (data.length != expected)
+            throw new IOException("Chunk " + chunk + " decoded to " + data.length + " bytes, expected " + expected);
+        return data;
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (java.util.concurrent.ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
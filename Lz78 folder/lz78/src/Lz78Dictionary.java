@@ -0,0 +1,207 @@
+// A capped LZ78 dictionary. Once maxEntries phrases exist, adding one evicts
+// a leaf phrase (one no other phrase extends) and reuses its index:
+//
+//   LRU evicts the leaf whose index was output longest ago,
+//   LFU evicts the leaf whose index was output the fewest times.
+//
+// Only leaves are evicted, so the parent of every phrase stays valid. The
+// decoder makes the same use() and add() calls in the same order, so it
+// evicts the same phrases without anything extra in the stream.
+public class Lz78Dictionary {
+    public enum Policy { LRU, LFU }
+
+    private final int maxEntries;
+    private final Policy policy;
+    // (parent, symbol) -> entry, for the encoder; the decoder only walks parents
+    private final Lz78Trie index;
+    private final int[] parent;
+    private final char[] symbol;
+    private final int[] length;
+    private final int[] childCount;
+    private int size = 1;
+
+    // LRU: leaves in a circular list through entry 0, least recently used first
+    private int[] prevLeaf;
+    private int[] nextLeaf;
+
+    // LFU: leaves in a min-heap by use count
+    private int[] uses;
+    private int[] heap;
+    private int[] heapPos;
+    private int heapSize;
+
+    public Lz78Dictionary(int maxEntries, Policy policy, boolean indexed) {
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.index = indexed ? new Lz78Trie() : null;
+        this.parent = new int[maxEntries];
+        this.symbol = new char[maxEntries];
+        this.length = new int[maxEntries];
+        this.childCount = new int[maxEntries];
+        if (policy == Policy.LRU) {
+            prevLeaf = new int[maxEntries];
+            nextLeaf = new int[maxEntries];
+        } else {
+            uses = new int[maxEntries];
+            heap = new int[maxEntries];
+            heapPos = new int[maxEntries];
+        }
+    }
+
+    public int child(int parent, int symbol) {
+        return index.child(parent, symbol);
+    }
+
+    // The phrase at entry was output as a tag position.
+    public void use(int entry) {
+        if (entry == 0)
+            return;
+        if (policy == Policy.LRU) {
+            if (childCount[entry] == 0) {
+                unlink(entry);
+                linkBefore(entry, 0);
+            }
+        } else {
+            uses[entry]++;
+            if (childCount[entry] == 0)
+                siftDown(heapPos[entry]);
+        }
+    }
+
+    // Adds parent's phrase plus symbol, evicting a leaf when full. A phrase is
+    // never evicted to make room for its own extension; then nothing is added.
+    public void add(int p, char s) {
+        int entry;
+        if (size < maxEntries) {
+            entry = size++;
+        } else {
+            entry = policy == Policy.LRU ? nextLeaf[0] : (heapSize > 0 ? heap[0] : 0);
+            if (entry == 0 || entry == p)
+                return;
+            evict(entry);
+        }
+        if (p != 0 && childCount[p]++ == 0)
+            removeLeaf(p);
+        parent[entry] = p;
+        symbol[entry] = s;
+        length[entry] = length[p] + 1;
+        childCount[entry] = 0;
+        if (policy == Policy.LFU)
+            uses[entry] = 0;
+        addLeaf(entry, false);
+        if (index != null)
+            index.put(p, s, entry);
+    }
+
+    private void evict(int entry) {
+        removeLeaf(entry);
+        if (index != null)
+            index.remove(parent[entry], symbol[entry]);
+        int p = parent[entry];
+        // A parent left without children is stale too: it goes first in line
+        if (p != 0 && --childCount[p] == 0)
+            addLeaf(p, true);
+    }
+
+    // Writes the phrase at entry into out from pos, back to front along the
+    // parents; returns the position after it.
+    public int writePhrase(int entry, byte[] out, int pos) {
+        int end = pos + length[entry];
+        for (int i = end - 1; i >= pos; i--) {
+            out[i] = (byte) symbol[entry];
+            entry = parent[entry];
+        }
+        return end;
+    }
+
+    public int parent(int entry) {
+        return parent[entry];
+    }
+
+    public char symbol(int entry) {
+        return symbol[entry];
+    }
+
+    public int phraseLength(int entry) {
+        return length[entry];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void addLeaf(int entry, boolean stale) {
+        if (policy == Policy.LRU) {
+            linkBefore(entry, stale ? nextLeaf[0] : 0);
+        } else {
+            heap[heapSize] = entry;
+            heapPos[entry] = heapSize;
+            siftUp(heapSize++);
+        }
+    }
+
+    private void removeLeaf(int entry) {
+        if (policy == Policy.LRU) {
+            unlink(entry);
+            return;
+        }
+        int i = heapPos[entry];
+        int lastEntry = heap[--heapSize];
+        if (i == heapSize)
+            return;
+        heap[i] = lastEntry;
+        heapPos[lastEntry] = i;
+        siftDown(i);
+        siftUp(heapPos[lastEntry]);
+    }
+
+    private void linkBefore(int entry, int next) {
+        int prev = prevLeaf[next];
+        nextLeaf[prev] = entry;
+        prevLeaf[entry] = prev;
+        nextLeaf[entry] = next;
+        prevLeaf[next] = entry;
+    }
+
+    private void unlink(int entry) {
+        nextLeaf[prevLeaf[entry]] = nextLeaf[entry];
+        prevLeaf[nextLeaf[entry]] = prevLeaf[entry];
+    }
+
+    // Fewer uses first; among equals the lower entry index
+    private boolean less(int a, int b) {
+        return uses[a] < uses[b] || (uses[a] == uses[b] && a < b);
+    }
+
+    private void siftUp(int i) {
+        int entry = heap[i];
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (!less(entry, heap[p]))
+                break;
+            heap[i] = heap[p];
+            heapPos[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = entry;
+        heapPos[entry] = i;
+    }
+
+    private void siftDown(int i) {
+        int entry = heap[i];
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= heapSize)
+                break;
+            if (c + 1 < heapSize && less(heap[c + 1], heap[c]))
+                c++;
+            if (!less(heap[c], entry))
+                break;
+            heap[i] = heap[c];
+            heapPos[heap[i]] = i;
+            i = c;
+        }
+        heap[i] = entry;
+        heapPos[entry] = i;
+    }
+}
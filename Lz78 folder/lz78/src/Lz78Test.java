@@ -0,0 +1,142 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class Lz78Test {
+
+    public static void main(String[] args) {
+        try {
+            testEmptyAndSingleSymbol();
+            testCappedDictionary();
+            testLzw();
+            testChunks();
+            System.out.println("All tests passed successfully!");
+        } catch (AssertionError e) {
+            System.err.println("Test failed: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // No tags at all, and one symbol whose phrases only ever grow
+    private static void testEmptyAndSingleSymbol() throws IOException {
+        byte[] single = new byte[10000];
+        Arrays.fill(single, (byte) 'a');
+        for (byte[] data : new byte[][] { new byte[0], { 'a' }, single }) {
+            String name = data.length + " bytes of one symbol";
+            roundTrip(data, 0, null, name);
+            for (Lz78Dictionary.Policy policy : Lz78Dictionary.Policy.values()) {
+                roundTrip(data, 2, policy, name);
+            }
+            for (LzwOutputStream.Policy policy : LzwOutputStream.Policy.values()) {
+                roundTripLzw(data, LzwOutputStream.MIN_BITS, policy, name);
+            }
+        }
+        System.out.println("Test 1 completed: empty input and a single symbol");
+    }
+
+    // Dictionaries far smaller than the input, so the decoder must replay
+    // every eviction; the content drifts halfway through. Input that ends
+    // inside a phrase ends on a tag built from the phrase's parent.
+    private static void testCappedDictionary() throws IOException {
+        byte[] data = driftingText(200000, new Random(13));
+        for (Lz78Dictionary.Policy policy : Lz78Dictionary.Policy.values()) {
+            for (int maxBits : new int[] { 2, 4, 10 }) {
+                roundTrip(data, maxBits, policy, "drifting text");
+            }
+            roundTrip("abababab".getBytes(), 2, policy, "input ending inside a phrase");
+        }
+        System.out.println("Test 2 completed: capped LRU and LFU dictionaries that evict");
+    }
+
+    // The smallest code width fills the LZW dictionary many times over
+    private static void testLzw() throws IOException {
+        byte[] data = driftingText(200000, new Random(12));
+        byte[] binary = new byte[50000];
+        new Random(12).nextBytes(binary);
+        for (LzwOutputStream.Policy policy : LzwOutputStream.Policy.values()) {
+            for (int maxBits : new int[] { LzwOutputStream.MIN_BITS, LzwOutputStream.MAX_BITS }) {
+                roundTripLzw(data, maxBits, policy, "drifting text");
+                roundTripLzw(binary, maxBits, policy, "random bytes");
+            }
+        }
+        System.out.println("Test 3 completed: LZW with RESET and FREEZE");
+    }
+
+    // Chunks smaller than the input with a short last one, and one chunk
+    // decoded on its own through the index
+    private static void testChunks() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            byte[] data = driftingText(100000, new Random(15));
+            int chunkSize = 16 * 1024;
+            byte[] compressed = Lz78Chunks.compress(data, chunkSize, pool);
+            assertEquals(data, Lz78Chunks.decompress(compressed, pool), "chunks of " + chunkSize);
+
+            int last = (data.length - 1) / chunkSize;
+            assertEquals(Arrays.copyOfRange(data, last * chunkSize, data.length),
+                    Lz78Chunks.readChunk(compressed, last), "last chunk read alone");
+            assertEquals(Arrays.copyOfRange(data, chunkSize, 2 * chunkSize), Lz78Chunks.readChunk(compressed, 1),
+                    "second chunk read alone");
+            try {
+                Lz78Chunks.readChunk(compressed, last + 1);
+                throw new AssertionError("chunk past the end was read");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+
+            byte[] empty = Lz78Chunks.compress(new byte[0], chunkSize, pool);
+            assertEquals(new byte[0], Lz78Chunks.decompress(empty, pool), "empty input in chunks");
+            byte[] whole = Lz78Chunks.compress(data, data.length + 1, pool);
+            assertEquals(data, Lz78Chunks.readChunk(whole, 0), "one chunk larger than the input");
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Test 4 completed: chunks, the chunk index and readChunk");
+    }
+
+    // Words from one vocabulary, then from another
+    private static byte[] driftingText(int length, Random random) {
+        String[][] vocabularies = { { "the ", "quick ", "brown ", "fox ", "jumps ", "over ", "lazy ", "dog " },
+                { "lorem ", "ipsum ", "dolor ", "sit ", "amet, ", "consectetur ", "adipiscing ", "elit. " } };
+        ByteArrayOutputStream text = new ByteArrayOutputStream(length + 16);
+        while (text.size() < length) {
+            String[] words = vocabularies[text.size() < length / 2 ? 0 : 1];
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            text.write(word, 0, word.length);
+        }
+        return Arrays.copyOf(text.toByteArray(), length);
+    }
+
+    private static void roundTrip(byte[] data, int maxBits, Lz78Dictionary.Policy policy, String name)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Main.compress(ByteBuffer.wrap(data), bytes, maxBits, policy);
+        byte[] compressed = bytes.toByteArray();
+        byte[] decoded = Main.decompress(new ByteArrayInputStream(compressed), compressed.length);
+        assertEquals(data, decoded, name + (policy == null ? "" : " with " + policy + " and " + maxBits + " bits"));
+    }
+
+    private static void roundTripLzw(byte[] data, int maxBits, LzwOutputStream.Policy policy, String name)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (LzwOutputStream out = new LzwOutputStream(bytes, maxBits, policy)) {
+            out.write(data);
+        }
+        byte[] decoded;
+        try (LzwInputStream in = new LzwInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            decoded = in.readAllBytes();
+        }
+        assertEquals(data, decoded, name + " through LZW with " + policy + " and " + maxBits + " bits");
+    }
+
+    private static void assertEquals(byte[] expected, byte[] actual, String message) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+// The LZ78 dictionary as a trie. Entry 0 is the empty phrase and every other
+// entry is its parent's phrase plus one symbol. Children are found through an
+// open-addressing hash table keyed by (parent, symbol), so following the
+// input one symbol at a time costs one probe and allocates nothing.
+public class Lz78Trie {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private long[] keys;
+    private int[] children;
+    private int mask;
+    private int shift;
+    private int size = 1;
+    // Links stored in the table
+    private int count;
+
+    public Lz78Trie() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        children = new int[capacity];
+        Arrays.fill(keys, -1);
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static long key(int parent, int symbol) {
+        return (long) parent << 16 | symbol;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    // Index of the entry for parent's phrase plus symbol, or -1 if there is none.
+    public int child(int parent, int symbol) {
+        long key = key(parent, symbol);
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return children[i];
+            if (keys[i] == -1)
+                return -1;
+        }
+    }
+
+    // Adds parent's phrase plus symbol as the next entry and returns its index.
+    public int add(int parent, int symbol) {
+        put(parent, symbol, size);
+        return size++;
+    }
+
+    // Links parent's phrase plus symbol to an entry index chosen by the caller,
+    // e.g. a slot freed by remove().
+    public void put(int parent, int symbol, int child) {
+        if (2 * (count + 1) > keys.length)
+            grow();
+        long key = key(parent, symbol);
+        int i = slot(key);
+        while (keys[i] != -1) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        children[i] = child;
+        count++;
+    }
+
+    // Unlinks parent's phrase plus symbol. Later keys of the probe run are
+    // shifted back into the hole, so lookups never need tombstones.
+    public void remove(int parent, int symbol) {
+        long key = key(parent, symbol);
+        int hole = slot(key);
+        while (keys[hole] != key) {
+            if (keys[hole] == -1)
+                return;
+            hole = (hole + 1) & mask;
+        }
+        for (int j = (hole + 1) & mask; keys[j] != -1; j = (j + 1) & mask) {
+            // A key may move back only as far as its home slot
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                children[hole] = children[j];
+                hole = j;
+            }
+        }
+        keys[hole] = -1;
+        count--;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldChildren = children;
+        allocate(2 * oldKeys.length);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == -1)
+                continue;
+            int i = slot(oldKeys[j]);
+            while (keys[i] != -1) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            children[i] = oldChildren[j];
+        }
+    }
+
+    // Drops every entry but the empty phrase, keeping the table at its size.
+    public void clear() {
+        Arrays.fill(keys, -1);
+        size = 1;
+        count = 0;
+    }
+
+    // Number of entries, counting the empty phrase
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.*;
+
+// Decodes the LZW stream written by LzwOutputStream. Every entry is stored as
+// its parent entry plus one byte, so a phrase is written into the buffer back
+// to front by following the parents.
+public class LzwInputStream extends InputStream {
+    private final BitReader in;
+    private final int maxEntries;
+    private final int[] parent;
+    private final int[] length;
+    private final byte[] first;
+    private final byte[] last;
+    private final byte[] buffer;
+    private int size;
+    private int previous = -1;
+    private int readPos;
+    private int writePos;
+    private boolean ended;
+
+    public LzwInputStream(InputStream in) throws IOException {
+        this.in = new BitReader(in);
+        if (this.in.readBits(16) != LzwOutputStream.MAGIC)
+            throw new IOException("Not an LZW stream");
+        long maxBits = this.in.readBits(8);
+        if (maxBits < LzwOutputStream.MIN_BITS || maxBits > LzwOutputStream.LIMIT_BITS)
+            throw new IOException("Corrupt LZW header");
+        this.maxEntries = 1 << maxBits;
+        this.parent = new int[maxEntries];
+        this.length = new int[maxEntries];
+        this.first = new byte[maxEntries];
+        this.last = new byte[maxEntries];
+        // No phrase is longer than the dictionary
+        this.buffer = new byte[2 * maxEntries];
+        for (int b = 0; b < 256; b++) {
+            length[b + 1] = 1;
+            first[b + 1] = (byte) b;
+            last[b + 1] = (byte) b;
+        }
+        size = LzwOutputStream.FIRST_CODE;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (readPos == writePos && !fill())
+            return -1;
+        int n = Math.min(len, writePos - readPos);
+        System.arraycopy(buffer, readPos, b, off, n);
+        readPos += n;
+        return n;
+    }
+
+    // Decodes codes until the buffer could not take another phrase.
+    private boolean fill() throws IOException {
+        readPos = 0;
+        writePos = 0;
+        while (!ended && writePos <= buffer.length - maxEntries) {
+            decodeCode();
+        }
+        return writePos > 0;
+    }
+
+    private void decodeCode() throws IOException {
+        long code = in.readBits(LzwOutputStream.codeWidth(size, maxEntries));
+        if (code < 0)
+            throw new EOFException("LZW stream ended without an end code");
+        if (code == LzwOutputStream.END) {
+            ended = true;
+            return;
+        }
+        if (code == LzwOutputStream.CLEAR) {
+            size = LzwOutputStream.FIRST_CODE;
+            previous = -1;
+            return;
+        }
+        // Only the entry about to be added may be used before it exists
+        boolean pending = previous >= 0 && size < maxEntries;
+        if (code == 0 || (code > 256 && code < LzwOutputStream.FIRST_CODE) || code > size
+                || (code == size && !pending))
+            throw new IOException("Corrupt LZW code");
+
+        int c = (int) code;
+        if (pending) {
+            // The previous phrase plus the first byte of this one
+            int entry = size++;
+            parent[entry] = previous;
+            length[entry] = length[previous] + 1;
+            first[entry] = first[previous];
+            last[entry] = c == entry ? first[previous] : first[c];
+        }
+        for (int i = writePos + length[c] - 1, e = c; i >= writePos; i--) {
+            buffer[i] = last[e];
+            e = parent[e];
+        }
+        writePos += length[c];
+        previous = c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
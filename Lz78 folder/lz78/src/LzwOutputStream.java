@@ -0,0 +1,128 @@
+import java.io.*;
+
+// Streaming LZW: the dictionary starts with every single byte and each output
+// code is a dictionary index, written at the width the dictionary currently
+// needs (9 bits at first, one more each time it doubles, up to maxBits). Codes
+// are written as soon as their phrase ends, so memory is the dictionary only.
+//
+// When the dictionary reaches 2^maxBits entries, RESET writes a CLEAR code and
+// starts over (good when the data changes along the way), FREEZE keeps using
+// the full dictionary without adding to it.
+public class LzwOutputStream extends OutputStream {
+    public enum Policy { RESET, FREEZE }
+
+    public static final int MAGIC = 0x4C57; // "LW"
+    public static final int MIN_BITS = 9;
+    public static final int MAX_BITS = 16;
+    public static final int LIMIT_BITS = 20;
+
+    // Entries 1-256 are the single bytes; the two control codes are entries
+    // for symbols outside the byte range, so no input can ever reach them.
+    static final int CLEAR = 257;
+    static final int END = 258;
+    static final int FIRST_CODE = 259;
+
+    private final BitWriter out;
+    private final Policy policy;
+    private final int maxEntries;
+    private final Lz78Trie dictionary = new Lz78Trie();
+    private int current;
+    // Dictionary size the decoder will have when it reads the next code; it
+    // adds each entry one code later than the encoder does
+    private int decoderSize;
+    private boolean firstCode;
+    private boolean finished;
+
+    public LzwOutputStream(OutputStream out) throws IOException {
+        this(out, MAX_BITS, Policy.RESET);
+    }
+
+    public LzwOutputStream(OutputStream out, int maxBits, Policy policy) throws IOException {
+        if (maxBits < MIN_BITS || maxBits > LIMIT_BITS)
+            throw new IllegalArgumentException("maxBits must be between " + MIN_BITS + " and " + LIMIT_BITS);
+        this.out = new BitWriter(out);
+        this.policy = policy;
+        this.maxEntries = 1 << maxBits;
+        this.out.writeBits(MAGIC, 16);
+        this.out.writeBits(maxBits, 8);
+        reset();
+    }
+
+    private void reset() {
+        dictionary.clear();
+        for (int b = 0; b < 256; b++) {
+            dictionary.add(0, b);
+        }
+        dictionary.add(0, 256);
+        dictionary.add(0, 257);
+        decoderSize = FIRST_CODE;
+        firstCode = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        for (int i = off; i < off + len; i++) {
+            int symbol = b[i] & 0xFF;
+            int next = dictionary.child(current, symbol);
+            if (next >= 0) {
+                current = next;
+                continue;
+            }
+            writeCode(current);
+            if (dictionary.size() < maxEntries) {
+                dictionary.add(current, symbol);
+            } else if (policy == Policy.RESET) {
+                writeCode(CLEAR);
+                reset();
+            }
+            current = symbol + 1;
+        }
+    }
+
+    private void writeCode(int code) throws IOException {
+        out.writeBits(code, codeWidth(decoderSize, maxEntries));
+        if (code == CLEAR || code == END)
+            return;
+        if (!firstCode && decoderSize < maxEntries)
+            decoderSize++;
+        firstCode = false;
+    }
+
+    static int codeWidth(int size, int maxEntries) {
+        return 32 - Integer.numberOfLeadingZeros(Math.min(size, maxEntries - 1));
+    }
+
+    // Writes the last phrase and the END code; no more input may follow.
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (current != 0)
+            writeCode(current);
+        writeCode(END);
+        out.alignToByte();
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    public long getBitsWritten() {
+        return out.getBitsWritten();
+    }
+}
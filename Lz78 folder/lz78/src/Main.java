@@ -1,15 +1,56 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
-    private static class Tag {
-        int position;
-        char nextChar;
+    // Largest capped dictionary: 2^MAX_BITS phrases
+    static final int MAX_BITS = 24;
 
-        Tag(int position, char nextChar) {
-            this.position = position;
-            this.nextChar = nextChar;
+    // The tags of an uncapped stream, kept until the widest position is known.
+    // A last tag that ends inside a phrase has no char; its nextChars entry is 0.
+    private static class Tags {
+        int[] positions = new int[1024];
+        byte[] nextChars = new byte[1024];
+        int count;
+        int maxPosition;
+
+        void add(int position, byte nextChar) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * count);
+                nextChars = Arrays.copyOf(nextChars, 2 * count);
+            }
+            positions[count] = position;
+            nextChars[count++] = nextChar;
+            maxPosition = Math.max(maxPosition, position);
+        }
+    }
+
+    // Receives the tags of a stream in order
+    private interface TagSink {
+        void tag(int position, byte nextChar) throws IOException;
+    }
+
+    // The tag text file: "<position,char>" separated by commas, with an empty
+    // char for a tag that has none
+    private static class TagText {
+        private final Writer out;
+        private boolean first = true;
+
+        TagText(Writer out) {
+            this.out = out;
+        }
+
+        void write(int position, byte nextChar) throws IOException {
+            if (!first) out.write(",");
+            first = false;
+            String charStr = nextChar == 0 ? "" : String.valueOf((char) (nextChar & 0xFF));
+            out.write("<" + position + "," + charStr + ">");
         }
     }
 
@@ -22,115 +63,289 @@ public class Main {
         compress(inputTextPath, outputBinaryPath, outputTagPath);
 
         decompress(outputBinaryPath, outputDecompressedPath);
+
+        String outputLzwPath = "C:/Users/admin/Desktop/DSAI325_Assignment2_LZ78/lz78/output.lzw";
+        compressLzw(inputTextPath, outputLzwPath, LzwOutputStream.MAX_BITS, LzwOutputStream.Policy.RESET);
+
+        reportChunkSizes(inputTextPath);
     }
 
-    public static void compress(String inputPath, String outputPath, String outputTagPath) throws IOException {
-        String inputData = readTextFile(inputPath);
-        List<Tag> tags = new ArrayList<>();
-        Map<String, Integer> dictionary = new HashMap<>();
-        dictionary.put("", 0);
-        int nextIndex = 1;
-        String currentString = "";
-
-        for (char c : inputData.toCharArray()) {
-            String candidate = currentString + c;
-            if (dictionary.containsKey(candidate)) {
-                currentString = candidate;
-            } else {
-                int pos = dictionary.get(currentString);
-                tags.add(new Tag(pos, c));
-                dictionary.put(candidate, nextIndex++);
-                currentString = "";
-            }
+    // Single pass with bounded memory: codes are streamed out as phrases end
+    public static void compressLzw(String inputPath, String outputPath, int maxBits, LzwOutputStream.Policy policy)
+            throws IOException {
+        long originalSize = new File(inputPath).length();
+        long compressedSize;
+        try (InputStream in = new FileInputStream(inputPath);
+                LzwOutputStream out = new LzwOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(outputPath)), maxBits, policy)) {
+            copy(in, out);
+            out.finish();
+            compressedSize = out.getBitsWritten();
         }
+        System.out.println("Original size: " + originalSize * 8 + " bits");
+        System.out.println("LZW compressed size: " + compressedSize + " bits");
+    }
 
-        if (!currentString.isEmpty()) {
-            int pos = dictionary.get(currentString);
-            tags.add(new Tag(pos, '\0')); 
+    public static void decompressLzw(String inputPath, String outputPath) throws IOException {
+        try (InputStream in = new LzwInputStream(new BufferedInputStream(new FileInputStream(inputPath)));
+                OutputStream out = new FileOutputStream(outputPath)) {
+            copy(in, out);
         }
+    }
 
-        try (FileWriter tagWriter = new FileWriter(outputTagPath)) {
-            StringBuilder tagOutput = new StringBuilder();
-            for (int i = 0; i < tags.size(); i++) {
-                Tag tag = tags.get(i);
-                String charStr = tag.nextChar == '\0' ? "" : String.valueOf(tag.nextChar);
-                tagOutput.append("<").append(tag.position).append(",").append(charStr).append(">");
-                if (i != tags.size() - 1) tagOutput.append(",");
-            }
-            tagWriter.write(tagOutput.toString());
+    // Ratio and time of chunked compression by chunk size: every chunk starts
+    // from an empty dictionary, so smaller chunks compress worse.
+    public static void reportChunkSizes(String inputPath) throws IOException {
+        byte[] data = Files.readAllBytes(new File(inputPath).toPath());
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long start = System.nanoTime();
+        int whole = Lz78Chunks.compressChunk(ByteBuffer.wrap(data)).length;
+        long wholeTime = System.nanoTime() - start;
+        System.out.printf("%-10s %12s %8s %10s %10s%n", "chunk", "bytes", "ratio", "loss", "ms");
+        System.out.printf("%-10s %12d %8.3f %10s %10d%n", "none", whole, (double) data.length / Math.max(1, whole),
+                "-", wholeTime / 1_000_000);
+        for (int chunkSize = 64 * 1024; chunkSize <= 16 * 1024 * 1024; chunkSize *= 4) {
+            start = System.nanoTime();
+            byte[] compressed = Lz78Chunks.compress(data, chunkSize, pool);
+            long time = System.nanoTime() - start;
+            System.out.printf("%-10s %12d %8.3f %9.2f%% %10d%n", chunkSize / 1024 + "K", compressed.length,
+                    (double) data.length / Math.max(1, compressed.length),
+                    100.0 * (compressed.length - whole) / Math.max(1, whole), time / 1_000_000);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    public static void compress(String inputPath, String outputPath, String outputTagPath) throws IOException {
+        compress(inputPath, outputPath, outputTagPath, 0, null);
+    }
+
+    // With a policy the dictionary holds at most 2^maxBits phrases and evicts
+    // by that policy once full; without one it grows with the input.
+    public static void compress(String inputPath, String outputPath, String outputTagPath, int maxBits,
+            Lz78Dictionary.Policy policy) throws IOException {
+        if (policy != null && (maxBits < 2 || maxBits > MAX_BITS))
+            throw new IllegalArgumentException("maxBits must be between 2 and " + MAX_BITS);
+        // Bytes are the chars, so any file fits the 8-bit char field and comes
+        // back unchanged. The file is mapped rather than copied onto the heap.
+        long originalLength;
+        long compressedSize;
+        try (FileChannel in = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+                Writer tagWriter = new BufferedWriter(new FileWriter(outputTagPath));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            originalLength = in.size();
+            if (originalLength > Integer.MAX_VALUE)
+                throw new IOException("Too large to map at once: " + originalLength);
+            compressedSize = compress(in.map(FileChannel.MapMode.READ_ONLY, 0, originalLength), out, maxBits,
+                    policy, new TagText(tagWriter));
         }
 
-        int maxPos = tags.stream().mapToInt(t -> t.position).max().orElse(0);
-        int bitsNeeded = bitsNeeded(maxPos);
+        System.out.println("Original size: " + originalLength * 8 + " bits");
+        System.out.println("Compressed size: " + compressedSize + " bits");
+    }
 
-        StringBuilder binaryString = new StringBuilder();
-        binaryString.append(String.format("%8s", Integer.toBinaryString(bitsNeeded)).replace(' ', '0'));
+    // The remaining bytes of data as one LZ78 stream; the chunked format calls
+    // this for every chunk. Returns the bits written before the last byte's padding.
+    static long compress(ByteBuffer data, OutputStream out, int maxBits, Lz78Dictionary.Policy policy)
+            throws IOException {
+        return compress(data, out, maxBits, policy, null);
+    }
 
-        for (Tag tag : tags) {
-            binaryString.append(binarizeTag(tag.position, bitsNeeded, tag.nextChar));
+    // Header: position width (8 bits), whether the last tag has no char (1 bit),
+    // eviction policy (2 bits: none, LRU, LFU) and for a capped dictionary maxBits (5 bits)
+    private static long compress(ByteBuffer data, OutputStream out, int maxBits, Lz78Dictionary.Policy policy,
+            TagText text) throws IOException {
+        BitWriter binWriter = new BitWriter(out);
+        if (policy != null) {
+            // Positions of a capped dictionary fit in maxBits, so every tag goes
+            // out as soon as it is parsed and memory stays flat
+            binWriter.writeBits(maxBits, 8);
+            binWriter.writeBits(0, 1);
+            binWriter.writeBits(policy.ordinal() + 1, 2);
+            binWriter.writeBits(maxBits, 5);
+            parse(data, maxBits, policy, (position, nextChar) -> {
+                binWriter.writeBits(position, maxBits);
+                binWriter.writeBits(nextChar & 0xFF, 8);
+                if (text != null)
+                    text.write(position, nextChar);
+            });
+        } else {
+            Tags tags = new Tags();
+            boolean endsInPhrase = parse(data, 0, null, tags::add);
+            int bitsNeeded = bitsNeeded(tags.maxPosition);
+            binWriter.writeBits(bitsNeeded, 8);
+            binWriter.writeBits(endsInPhrase ? 1 : 0, 1);
+            binWriter.writeBits(0, 2);
+            for (int i = 0; i < tags.count; i++) {
+                binWriter.writeBits(tags.positions[i], bitsNeeded);
+                binWriter.writeBits(tags.nextChars[i] & 0xFF, 8);
+                if (text != null)
+                    text.write(tags.positions[i], tags.nextChars[i]);
+            }
         }
+        long bitsWritten = binWriter.getBitsWritten();
+        binWriter.alignToByte();
+        binWriter.flush();
+        return bitsWritten;
+    }
 
-        try (FileWriter binWriter = new FileWriter(outputPath)) {
-            binWriter.write(binaryString.toString());
+    // Walks the dictionary over data, one tag per phrase. Returns whether the
+    // last tag ends inside a phrase and so has no char.
+    private static boolean parse(ByteBuffer data, int maxBits, Lz78Dictionary.Policy policy, TagSink sink)
+            throws IOException {
+        Lz78Trie dictionary = policy == null ? new Lz78Trie() : null;
+        Lz78Dictionary bounded = policy != null ? new Lz78Dictionary(1 << maxBits, policy, true) : null;
+        int current = 0;
+
+        while (data.hasRemaining()) {
+            int c = data.get() & 0xFF;
+            int next = bounded != null ? bounded.child(current, c) : dictionary.child(current, c);
+            if (next >= 0) {
+                current = next;
+            } else {
+                sink.tag(current, (byte) c);
+                if (bounded != null) {
+                    bounded.use(current);
+                    bounded.add(current, (char) c);
+                } else {
+                    dictionary.add(current, c);
+                }
+                current = 0;
+            }
         }
 
-        int compressedSize = (bitsNeeded + 8) * tags.size();
-        System.out.println("Original size: " + inputData.length() * 8 + " bits");
-        System.out.println("Compressed size: " + compressedSize + " bits");
+        if (current == 0)
+            return false;
+        if (bounded != null) {
+            // The phrase's parent plus its last symbol spells it too, so the
+            // header, written before the end was known, needs no flag
+            sink.tag(bounded.parent(current), (byte) bounded.symbol(current));
+            return false;
+        }
+        // Input that ends inside a phrase gets a last tag without a char
+        sink.tag(current, (byte) 0);
+        return true;
     }
 
     public static void decompress(String inputPath, String outputPath) throws IOException {
-        String binaryString = readTextFile(inputPath);
+        byte[] output;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(inputPath))) {
+            output = decompress(in, new File(inputPath).length());
+        }
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            out.write(output);
+        }
+    }
 
-        int bitsNeeded = Integer.parseInt(binaryString.substring(0, 8), 2);
-        String tagBinary = binaryString.substring(8);
-        int tagLength = bitsNeeded + 8;
-        List<Tag> tags = new ArrayList<>();
+    // Decodes one LZ78 stream of inputLength bytes.
+    static byte[] decompress(InputStream in, long inputLength) throws IOException {
+        int tagCount = 0;
+        int[] positions;
+        byte[] nextChars;
+        boolean endsInPhrase;
+        Lz78Dictionary.Policy policy = null;
+        int maxBits = 0;
 
-        for (int i = 0; i < tagBinary.length(); i += tagLength) {
-            if (i + tagLength > tagBinary.length()) break;
-            String segment = tagBinary.substring(i, i + tagLength);
-            int pos = Integer.parseInt(segment.substring(0, bitsNeeded), 2);
-            char nextChar = (char) Integer.parseInt(segment.substring(bitsNeeded), 2);
-            tags.add(new Tag(pos, nextChar));
+        BitReader binReader = new BitReader(in);
+        long bitsNeeded = binReader.readBits(8);
+        long flag = binReader.readBits(1);
+        if (bitsNeeded < 1 || bitsNeeded > 31 || flag < 0)
+            throw new IOException("Not an LZ78 file");
+        endsInPhrase = flag == 1;
+        long mode = binReader.readBits(2);
+        if (mode < 0 || mode > Lz78Dictionary.Policy.values().length)
+            throw new IOException("Not an LZ78 file");
+        if (mode > 0) {
+            policy = Lz78Dictionary.Policy.values()[(int) mode - 1];
+            maxBits = (int) binReader.readBits(5);
+            if (maxBits < 2 || maxBits > MAX_BITS || bitsNeeded > maxBits)
+                throw new IOException("Corrupt LZ78 header");
         }
 
-        List<String> dictionary = new ArrayList<>();
-        dictionary.add("");
-        StringBuilder output = new StringBuilder();
+        // Every tag takes bitsNeeded + 8 bits, so the file size bounds the tag count
+        long maxTags = inputLength * 8 / (bitsNeeded + 8);
+        if (maxTags > Integer.MAX_VALUE - 8)
+            throw new IOException("Too many tags for one array");
+        positions = new int[(int) maxTags];
+        nextChars = new byte[(int) maxTags];
 
-        for (Tag tag : tags) {
-            if (tag.nextChar == '\0') {
-                output.append(dictionary.get(tag.position));
-                break;
-            }
-            String phrase = dictionary.get(tag.position) + tag.nextChar;
-            output.append(phrase);
-            dictionary.add(phrase);
+        // The last byte is zero padded, so a tag cut short marks the end
+        while (true) {
+            long pos = binReader.readBits((int) bitsNeeded);
+            long nextChar = binReader.readBits(8);
+            if (pos < 0 || nextChar < 0) break;
+            positions[tagCount] = (int) pos;
+            nextChars[tagCount++] = (byte) nextChar;
+        }
+
+        return policy == null ? decode(positions, nextChars, tagCount, endsInPhrase)
+                : decodeBounded(positions, nextChars, tagCount, endsInPhrase,
+                        new Lz78Dictionary(1 << maxBits, policy, false));
+    }
+
+    // The tags are the dictionary: entry i + 1 is the phrase at positions[i]
+    // plus nextChars[i]. Phrase lengths give the exact output size, and every
+    // phrase is written back to front by following the positions.
+    static byte[] decode(int[] positions, byte[] nextChars, int tagCount, boolean endsInPhrase)
+            throws IOException {
+        int[] length = new int[tagCount + 1];
+        long total = 0;
+        for (int i = 0; i < tagCount; i++) {
+            if (positions[i] > i)
+                throw new IOException("Corrupt LZ78 tag");
+            length[i + 1] = length[positions[i]] + 1;
+            total += length[i + 1];
         }
+        if (endsInPhrase && tagCount > 0)
+            total--;
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IOException("Too large for one array: " + total);
 
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write(output.toString());
+        byte[] output = new byte[(int) total];
+        int pos = 0;
+        for (int i = 0; i < tagCount; i++) {
+            // The last tag of input that ends inside a phrase has no char
+            int entry = endsInPhrase && i == tagCount - 1 ? positions[i] : i + 1;
+            pos += length[entry];
+            for (int j = pos - 1; entry != 0; j--) {
+                output[j] = nextChars[entry - 1];
+                entry = positions[entry - 1];
+            }
         }
+        return output;
     }
 
-    private static String readTextFile(String path) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            int c;
-            while ((c = reader.read()) != -1) content.append((char) c);
+    // Replays the encoder's use() and add() calls tag by tag, so every
+    // eviction happens at the same point and positions refer to the same phrases.
+    static byte[] decodeBounded(int[] positions, byte[] nextChars, int tagCount, boolean endsInPhrase,
+            Lz78Dictionary dictionary) throws IOException {
+        byte[] output = new byte[Math.max(16, 2 * tagCount)];
+        int pos = 0;
+        for (int i = 0; i < tagCount; i++) {
+            int entry = positions[i];
+            if (entry >= dictionary.size())
+                throw new IOException("Corrupt LZ78 tag");
+            int length = dictionary.phraseLength(entry) + 1;
+            if (pos + length > output.length)
+                output = Arrays.copyOf(output, Math.max(2 * output.length, pos + length));
+            pos = dictionary.writePhrase(entry, output, pos);
+            if (endsInPhrase && i == tagCount - 1)
+                break;
+            output[pos++] = nextChars[i];
+            dictionary.use(entry);
+            dictionary.add(entry, (char) (nextChars[i] & 0xFF));
         }
-        return content.toString();
+        return Arrays.copyOf(output, pos);
     }
 
     public static int bitsNeeded(int number) {
         if (number == 0) return 1;
         return (int) (Math.log(number) / Math.log(2)) + 1;
     }
-
-    public static String binarizeTag(int pos, int bits, char nextChar) {
-        String binaryPos = String.format("%" + bits + "s", Integer.toBinaryString(pos)).replace(' ', '0');
-        String binaryChar = String.format("%8s", Integer.toBinaryString(nextChar)).replace(' ', '0');
-        return binaryPos + binaryChar;
-    }
 }
@@ -0,0 +1,83 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// Reads bits most significant first from a byte array through a 64-bit
+// buffer. The next bit is the top bit of the buffer, and refill() tops it up
+// to at least REFILL_BITS bits, so a whole code can be looked up between
+// refills. Past the end of the data the buffer fills with zeros.
+public class BitBuffer {
+    // The eight-byte load keeps only whole bytes, so from a byte boundary it
+    // stops at 56 bits
+    public static final int REFILL_BITS = 56;
+
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    private final byte[] data;
+    private final int start;
+    private final int limit;
+    private int pos;
+    private long bits;
+    private int count;
+
+    public BitBuffer(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BitBuffer(byte[] data, int off, int len) {
+        this.data = data;
+        this.start = off;
+        this.limit = off + len;
+        this.pos = off;
+    }
+
+    public void refill() {
+        if (pos + 8 <= limit) {
+            // Eight bytes in one load; only the whole bytes that fit are kept
+            int bytes = (63 - count) >>> 3;
+            long word = (long) LONG_BE.get(data, pos);
+            bits |= word >>> count;
+            count += bytes << 3;
+            bits &= ~(-1L >>> count);
+            pos += bytes;
+            return;
+        }
+        while (count <= 56) {
+            long b = pos < limit ? data[pos] & 0xFF : 0;
+            pos++;
+            bits |= b << (56 - count);
+            count += 8;
+        }
+    }
+
+    // The next n bits (1 to 32) without consuming them
+    public int peek(int n) {
+        return (int) (bits >>> (64 - n));
+    }
+
+    // Reads n bits (1 to 32)
+    public int readBits(int n) {
+        refill();
+        int value = peek(n);
+        skip(n);
+        return value;
+    }
+
+    // Consumes the next n bits (0 to 32) without refilling; zero bits give 0
+    public int take(int n) {
+        int value = (int) ((bits >>> 1) >>> (63 - n));
+        skip(n);
+        return value;
+    }
+
+    public void skip(int n) {
+        bits <<= n;
+        count -= n;
+    }
+
+    // Bits consumed so far
+    public long position() {
+        return (long) (pos - start) * 8 - count;
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.IOException;
+import java.util.*;
+
+// A canonical Huffman code: codes are handed out shortest first, equal
+// lengths in symbol order, so the code length of every symbol is all a
+// decoder needs. Decoding looks up ROOT_BITS bits at a time, which yields
+// two symbols when both codes fit in them; a code longer than ROOT_BITS
+// continues in a second-level table under its first ROOT_BITS bits.
+public class CanonicalCode {
+    public static final int MAX_LENGTH = 24;
+    static final int ROOT_BITS = 11;
+
+    private final int[] lengths;
+    private final int[] codes;
+    private final int maxLength;
+    private final int rootBits;
+    // Entries are symbol << 5 | code length; a negative entry ~(offset << 5 | bits)
+    // points to the second-level table of bits bits at offset.
+    private final int[] table;
+    // Root entries again, with a second symbol where it fits: bits consumed
+    // (5 bits), whether there are two symbols (1 bit), then the two symbols
+    // from bit 8 and bit 16. Second-level pointers are copied from table.
+    private final int[] pairTable;
+
+    public CanonicalCode(int[] lengths) throws IOException {
+        this.lengths = lengths;
+        int max = 0;
+        long kraft = 0;
+        for (int length : lengths) {
+            if (length < 0 || length > MAX_LENGTH)
+                throw new IOException("Bad code length " + length);
+            if (length > 0) {
+                kraft += 1L << (MAX_LENGTH - length);
+                max = Math.max(max, length);
+            }
+        }
+        if (kraft > 1L << MAX_LENGTH)
+            throw new IOException("Code lengths do not form a prefix code");
+        this.maxLength = max;
+        this.rootBits = Math.max(1, Math.min(ROOT_BITS, max));
+        this.codes = canonicalCodes(lengths);
+        this.table = decodingTable();
+        this.pairTable = pairTable();
+    }
+
+    // Optimal code lengths of at most maxLength bits (package-merge). Every
+    // symbol starts as a coin of its frequency at each of maxLength levels.
+    // Going up a level, the coins below are paired into packages that join
+    // that level's own coins in weight order. The cheapest 2n - 2 items at the
+    // top decide the lengths: a symbol's code length is the number of levels
+    // at which its coin is among the chosen items or inside a chosen package.
+    public static int[] packageMerge(int[] frequencies, int maxLength) {
+        int[] lengths = new int[frequencies.length];
+        Integer[] order = new Integer[frequencies.length];
+        int n = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0)
+                order[n++] = i;
+        }
+        if (n == 0)
+            return lengths;
+        if (n == 1) {
+            lengths[order[0]] = 1;
+            return lengths;
+        }
+        if (maxLength < 1 || maxLength > MAX_LENGTH || (long) n > 1L << maxLength)
+            throw new IllegalArgumentException(n + " symbols do not fit codes of " + maxLength + " bits");
+        Arrays.sort(order, 0, n, (a, b) -> frequencies[a] != frequencies[b]
+                ? Integer.compare(frequencies[a], frequencies[b]) : Integer.compare(a, b));
+
+        // items[level]: coins (the symbol's rank, >= 0) and packages (-1) in
+        // weight order; level 0 is the deepest and holds coins only
+        int[][] items = new int[maxLength][];
+        long[] weights = new long[n];
+        items[0] = new int[n];
+        for (int k = 0; k < n; k++) {
+            items[0][k] = k;
+            weights[k] = frequencies[order[k]];
+        }
+        for (int level = 1; level < maxLength; level++) {
+            int packages = weights.length / 2;
+            int[] merged = new int[n + packages];
+            long[] mergedWeights = new long[n + packages];
+            int coin = 0;
+            int pkg = 0;
+            for (int k = 0; k < merged.length; k++) {
+                long packageWeight = pkg < packages ? weights[2 * pkg] + weights[2 * pkg + 1] : Long.MAX_VALUE;
+                if (coin < n && frequencies[order[coin]] <= packageWeight) {
+                    merged[k] = coin;
+                    mergedWeights[k] = frequencies[order[coin++]];
+                } else {
+                    merged[k] = -1;
+                    mergedWeights[k] = packageWeight;
+                    pkg++;
+                }
+            }
+            items[level] = merged;
+            weights = mergedWeights;
+        }
+
+        // The chosen items of every level are a prefix of it; the packages
+        // among them are made of the first two per package of the level below
+        int take = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0; level--) {
+            int packages = 0;
+            for (int k = 0; k < take; k++) {
+                if (items[level][k] >= 0)
+                    lengths[order[items[level][k]]]++;
+                else
+                    packages++;
+            }
+            take = 2 * packages;
+        }
+        return lengths;
+    }
+
+    private static int[] canonicalCodes(int[] lengths) {
+        int[] lengthCounts = new int[MAX_LENGTH + 1];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCode = new int[MAX_LENGTH + 1];
+        int code = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0)
+                codes[i] = nextCode[lengths[i]]++;
+        }
+        return codes;
+    }
+
+    private int[] decodingTable() {
+        // A second-level table has as many bits as the longest code under its prefix needs
+        int[] subBits = new int[1 << rootBits];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > rootBits) {
+                int prefix = codes[i] >>> (lengths[i] - rootBits);
+                subBits[prefix] = Math.max(subBits[prefix], lengths[i] - rootBits);
+            }
+        }
+        int[] offsets = new int[1 << rootBits];
+        int size = 1 << rootBits;
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] > 0) {
+                offsets[prefix] = size;
+                size += 1 << subBits[prefix];
+            }
+        }
+
+        int[] table = new int[size];
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] > 0)
+                table[prefix] = ~(offsets[prefix] << 5 | subBits[prefix]);
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            if (length == 0)
+                continue;
+            int first;
+            int count;
+            if (length <= rootBits) {
+                first = codes[i] << (rootBits - length);
+                count = 1 << (rootBits - length);
+            } else {
+                int prefix = codes[i] >>> (length - rootBits);
+                int rest = codes[i] & ((1 << (length - rootBits)) - 1);
+                int bits = subBits[prefix] - (length - rootBits);
+                first = offsets[prefix] + (rest << bits);
+                count = 1 << bits;
+            }
+            Arrays.fill(table, first, first + count, i << 5 | length);
+        }
+        return table;
+    }
+
+    private int[] pairTable() {
+        int[] pairs = new int[1 << rootBits];
+        int mask = (1 << rootBits) - 1;
+        for (int i = 0; i < pairs.length; i++) {
+            int first = table[i];
+            if (first <= 0) {
+                pairs[i] = first;
+                continue;
+            }
+            int length = first & 31;
+            // The bits after the first code; those past ROOT_BITS are unknown,
+            // but a second code that ends within ROOT_BITS does not depend on them
+            int second = table[(i << length) & mask];
+            if (second > 0 && length + (second & 31) <= rootBits)
+                pairs[i] = (second >>> 5) << 16 | (first >>> 5) << 8 | 1 << 5 | (length + (second & 31));
+            else
+                pairs[i] = (first >>> 5) << 8 | length;
+        }
+        return pairs;
+    }
+
+    // Decodes symbols into out[from..to). A refill leaves at least 56 bits,
+    // and a lookup consumes at most maxLength of them.
+    public void decode(BitBuffer in, byte[] out, int from, int to) throws IOException {
+        int perRefill = Math.max(1, BitBuffer.REFILL_BITS / Math.max(1, maxLength));
+        int n = from;
+        // Lookups that may yield two symbols, while there is room for two
+        while (n < to - 1) {
+            in.refill();
+            for (int k = 0; k < perRefill && n < to - 1; k++) {
+                n = decodeStep(in, out, n);
+            }
+        }
+        if (n < to) {
+            in.refill();
+            int entry = lookup(in);
+            if (entry == 0)
+                throw new IOException("Corrupt Huffman code");
+            in.skip(entry & 31);
+            out[n] = (byte) (entry >>> 5);
+        }
+    }
+
+    // Decodes four streams, stream k into out[bounds[k]..bounds[k + 1]). The
+    // streams take turns, so lookups from different streams overlap in the CPU
+    // instead of each waiting for the previous code's length.
+    public void decode(BitBuffer[] in, byte[] out, int[] bounds) throws IOException {
+        if (in.length != 4)
+            throw new IllegalArgumentException("Four streams expected");
+        BitBuffer in0 = in[0];
+        BitBuffer in1 = in[1];
+        BitBuffer in2 = in[2];
+        BitBuffer in3 = in[3];
+        int n0 = bounds[0];
+        int n1 = bounds[1];
+        int n2 = bounds[2];
+        int n3 = bounds[3];
+        int perRefill = Math.max(1, BitBuffer.REFILL_BITS / Math.max(1, maxLength));
+        // Room for perRefill lookups of two symbols in every stream
+        int margin = 2 * perRefill;
+        while (n0 + margin < bounds[1] && n1 + margin < bounds[2] && n2 + margin < bounds[3]
+                && n3 + margin < bounds[4]) {
+            in0.refill();
+            in1.refill();
+            in2.refill();
+            in3.refill();
+            for (int k = 0; k < perRefill; k++) {
+                n0 = decodeStep(in0, out, n0);
+                n1 = decodeStep(in1, out, n1);
+                n2 = decodeStep(in2, out, n2);
+                n3 = decodeStep(in3, out, n3);
+            }
+        }
+        decode(in0, out, n0, bounds[1]);
+        decode(in1, out, n1, bounds[2]);
+        decode(in2, out, n2, bounds[3]);
+        decode(in3, out, n3, bounds[4]);
+    }
+
+    // The table entry of the code at the top of a window of bits bits, or 0
+    // when the window does not hold a whole code
+    int entryAt(int window, int bits) {
+        int entry;
+        if (bits <= rootBits) {
+            entry = table[window << (rootBits - bits)];
+        } else {
+            entry = table[window >>> (bits - rootBits)];
+            if (entry < 0) {
+                int sub = ~entry;
+                int subBits = sub & 31;
+                if (rootBits + subBits > bits)
+                    return 0;
+                entry = table[(sub >>> 5) + (window >>> (bits - rootBits - subBits) & ((1 << subBits) - 1))];
+            }
+        }
+        return entry > 0 && (entry & 31) <= bits ? entry : 0;
+    }
+
+    // One symbol, for callers that switch codes from symbol to symbol and
+    // refill the buffer themselves
+    int decodeSymbol(BitBuffer in) throws IOException {
+        int entry = lookup(in);
+        int length = entry & 31;
+        if (length == 0)
+            throw new IOException("Corrupt Huffman code");
+        in.skip(length);
+        return entry >>> 5;
+    }
+
+    // One lookup: one or two symbols go to out from n. Returns the new n.
+    private int decodeStep(BitBuffer in, byte[] out, int n) throws IOException {
+        int entry = pairTable[in.peek(rootBits)];
+        if (entry < 0) {
+            int single = lookup(in);
+            entry = (single >>> 5) << 8 | (single & 31);
+        }
+        int length = entry & 31;
+        if (length == 0)
+            throw new IOException("Corrupt Huffman code");
+        in.skip(length);
+        out[n] = (byte) (entry >>> 8);
+        out[n + 1] = (byte) (entry >>> 16);
+        return n + 1 + (entry >>> 5 & 1);
+    }
+
+    // The single-symbol entry for the next code, without consuming it
+    private int lookup(BitBuffer in) {
+        int entry = table[in.peek(rootBits)];
+        if (entry < 0) {
+            int sub = ~entry;
+            int bits = sub & 31;
+            entry = table[(sub >>> 5) + (in.peek(rootBits + bits) & ((1 << bits) - 1))];
+        }
+        return entry;
+    }
+
+    // Code lengths of the used symbols in symbol order: how many there are,
+    // then for each a flag bit set when it follows the previous symbol
+    // directly (else the 8-bit symbol) and its 5-bit length.
+    public void writeLengths(BitWriter out) throws IOException {
+        int used = 0;
+        for (int length : lengths) {
+            if (length > 0)
+                used++;
+        }
+        out.writeBits(used, 9);
+        int previous = -1;
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] == 0)
+                continue;
+            if (i == previous + 1) {
+                out.writeBits(1, 1);
+            } else {
+                out.writeBits(0, 1);
+                out.writeBits(i, 8);
+            }
+            out.writeBits(lengths[i], 5);
+            previous = i;
+        }
+    }
+
+    public static CanonicalCode readLengths(BitBuffer in) throws IOException {
+        int used = in.readBits(9);
+        if (used > 256)
+            throw new IOException("Corrupt Huffman header");
+        int[] symbols = new int[used];
+        int[] symbolLengths = new int[used];
+        int previous = -1;
+        for (int k = 0; k < used; k++) {
+            int symbol = in.readBits(1) == 1 ? previous + 1 : in.readBits(8);
+            if (symbol <= previous || symbol > 0xFF)
+                throw new IOException("Corrupt Huffman header");
+            symbols[k] = symbol;
+            symbolLengths[k] = in.readBits(5);
+            if (symbolLengths[k] == 0)
+                throw new IOException("Corrupt Huffman header");
+            previous = symbol;
+        }
+        int[] lengths = new int[previous + 1];
+        for (int k = 0; k < used; k++) {
+            lengths[symbols[k]] = symbolLengths[k];
+        }
+        return new CanonicalCode(lengths);
+    }
+
+    public int length(int symbol) {
+        return symbol < lengths.length ? lengths[symbol] : 0;
+    }
+
+    public int code(int symbol) {
+        return codes[symbol];
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    public int minLength() {
+        int min = maxLength;
+        for (int length : lengths) {
+            if (length > 0)
+                min = Math.min(min, length);
+        }
+        return min;
+    }
+
+    // The code of symbol as '0' and '1' characters
+    public String codeString(int symbol) {
+        StringBuilder code = new StringBuilder();
+        for (int i = lengths[symbol] - 1; i >= 0; i--) {
+            code.append((codes[symbol] >>> i & 1) == 0 ? '0' : '1');
+        }
+        return code.toString();
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Order-1 Huffman: every byte is coded with a code chosen by the byte before
+// it. The 256 contexts share at most MAX_GROUPS codes; contexts with similar
+// statistics are clustered into one group, so the header holds a few code
+// tables and a group number per context. Layout:
+//
+//   magic "H1", symbol count (32 bits), group count - 1 (3 bits)
+//   group of every context (just enough bits for the group count)
+//   code lengths of every group (see CanonicalCode.writeLengths)
+//   byte length of every stream but the last, then the streams
+//
+// The streams split the input as in Main; each starts from context 0.
+public class ContextHuffman {
+    public static final int MAGIC = 0x4831; // "H1"
+    static final int MAX_GROUPS = 8;
+    private static final int GROUP_BITS = 3;
+    private static final int CLUSTER_ROUNDS = 8;
+
+    public static void encode(String inputPath, String outputPath, int maxLength) throws IOException {
+        if (maxLength < 1 || maxLength > CanonicalCode.MAX_LENGTH)
+            throw new IllegalArgumentException("maxLength must be between 1 and " + CanonicalCode.MAX_LENGTH);
+        try (FileChannel fileIn = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ)) {
+            if (fileIn.size() > Integer.MAX_VALUE - 8)
+                throw new IOException("Too large for one Huffman file: " + fileIn.size() + " bytes");
+            encode(fileIn.map(FileChannel.MapMode.READ_ONLY, 0, fileIn.size()), outputPath, maxLength);
+        }
+    }
+
+    private static void encode(ByteBuffer inputData, String outputPath, int maxLength) throws IOException {
+        int length = inputData.remaining();
+        int[] bounds = Main.streamBounds(length);
+        int[][] counts = Main.countContextFrequencies(inputData, bounds);
+        System.out.println("Entropy: " + Main.calculateEntropy(Main.countFrequencies(inputData,
+                ForkJoinPool.commonPool()), length));
+        System.out.println("Order-1 entropy: " + Main.calculateOrder1Entropy(counts, length));
+
+        // The group count that gives the smallest output, headers included
+        Grouping best = null;
+        for (int groups = 1; groups <= MAX_GROUPS; groups *= 2) {
+            Grouping grouping = cluster(counts, groups, maxLength);
+            if (best == null || grouping.bits < best.bits)
+                best = grouping;
+        }
+        System.out.println("Code groups: " + best.codes.length);
+        int longest = Arrays.stream(best.codes).mapToInt(CanonicalCode::maxLength).max().orElse(0);
+        if (longest > maxLength)
+            System.out.println("Length limit raised to " + longest + " bits for groups with more than "
+                    + (1 << maxLength) + " symbols");
+        if (length > 0)
+            System.out.println("Order-1 code length: " + (double) best.dataBits / length + " bits/symbol");
+
+        byte[][] streams = encodeStreams(inputData, best, bounds, ForkJoinPool.commonPool());
+        long compressedSize;
+        try (BitWriter out = new BitWriter(new BufferedOutputStream(new FileOutputStream(outputPath)))) {
+            out.writeBits(MAGIC, 16);
+            out.writeBits(length, 32);
+            out.writeBits(best.codes.length - 1, GROUP_BITS);
+            int bits = bitsFor(best.codes.length);
+            for (int group : best.groupOf) {
+                if (bits > 0)
+                    out.writeBits(group, bits);
+            }
+            for (CanonicalCode code : best.codes) {
+                code.writeLengths(out);
+            }
+            for (int k = 0; k < Main.STREAMS - 1; k++) {
+                out.writeBits(streams[k].length, 32);
+            }
+            out.alignToByte();
+            for (byte[] stream : streams) {
+                out.writeBytes(stream);
+            }
+            compressedSize = out.getBitsWritten();
+        }
+        System.out.println("Original size: " + length * 8L + " bits");
+        System.out.println("Compressed size: " + compressedSize + " bits");
+    }
+
+    private static class Grouping {
+        int[] groupOf = new int[Main.ALPHABET_SIZE];
+        CanonicalCode[] codes;
+        long dataBits;
+        long bits;
+    }
+
+    // k-means over the contexts: the busiest contexts seed the groups, then
+    // every context moves to the group whose statistics code it cheapest and
+    // the group statistics are summed again. Costs come from smoothed
+    // probabilities, so a group can take a context with a byte it has not seen.
+    private static Grouping cluster(int[][] counts, int groups, int maxLength) throws IOException {
+        int[] totals = new int[Main.ALPHABET_SIZE];
+        Integer[] busiest = new Integer[Main.ALPHABET_SIZE];
+        for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+            totals[c] = Arrays.stream(counts[c]).sum();
+            busiest[c] = c;
+        }
+        Arrays.sort(busiest, (a, b) -> Integer.compare(totals[b], totals[a]));
+        Grouping grouping = new Grouping();
+        for (int g = 0; g < groups; g++) {
+            grouping.groupOf[busiest[g]] = g;
+        }
+        // The first statistics are the seeds' own
+        long[][] sums = groupSums(counts, grouping.groupOf, groups, busiest, groups);
+        double[][] cost = new double[groups][Main.ALPHABET_SIZE];
+        for (int round = 0; round < CLUSTER_ROUNDS; round++) {
+            for (int g = 0; g < groups; g++) {
+                long total = Arrays.stream(sums[g]).sum();
+                for (int s = 0; s < Main.ALPHABET_SIZE; s++) {
+                    cost[g][s] = -Math.log((sums[g][s] + 0.5) / (total + 0.5 * Main.ALPHABET_SIZE));
+                }
+            }
+            boolean moved = false;
+            for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+                if (totals[c] == 0)
+                    continue;
+                int bestGroup = 0;
+                double bestCost = Double.MAX_VALUE;
+                for (int g = 0; g < groups; g++) {
+                    double bits = 0;
+                    for (int s = 0; s < Main.ALPHABET_SIZE; s++) {
+                        bits += counts[c][s] * cost[g][s];
+                    }
+                    if (bits < bestCost) {
+                        bestCost = bits;
+                        bestGroup = g;
+                    }
+                }
+                moved |= grouping.groupOf[c] != bestGroup;
+                grouping.groupOf[c] = bestGroup;
+            }
+            sums = groupSums(counts, grouping.groupOf, groups, busiest, Main.ALPHABET_SIZE);
+            if (!moved && round > 0)
+                break;
+        }
+
+        // Groups nobody chose are dropped and the rest renumbered
+        int[] number = new int[groups];
+        int used = 0;
+        for (int g = 0; g < groups; g++) {
+            number[g] = Arrays.stream(sums[g]).sum() > 0 || (used == 0 && g == groups - 1) ? used++ : -1;
+        }
+        for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+            grouping.groupOf[c] = Math.max(0, number[grouping.groupOf[c]]);
+        }
+        grouping.codes = new CanonicalCode[used];
+        BitWriter header = new BitWriter(OutputStream.nullOutputStream());
+        for (int g = 0; g < groups; g++) {
+            if (number[g] < 0)
+                continue;
+            int[] frequencies = new int[Main.ALPHABET_SIZE];
+            for (int s = 0; s < Main.ALPHABET_SIZE; s++) {
+                frequencies[s] = (int) sums[g][s];
+            }
+            CanonicalCode code = new CanonicalCode(new int[0]);
+            if (Arrays.stream(frequencies).sum() > 0)
+                code = Main.generateHuffmanCodes(Main.buildHuffmanTree(frequencies), frequencies, maxLength);
+            grouping.codes[number[g]] = code;
+            code.writeLengths(header);
+            for (int s = 0; s < Main.ALPHABET_SIZE; s++) {
+                grouping.dataBits += (long) frequencies[s] * code.length(s);
+            }
+        }
+        grouping.bits = grouping.dataBits + header.getBitsWritten() + GROUP_BITS
+                + (long) bitsFor(used) * Main.ALPHABET_SIZE;
+        return grouping;
+    }
+
+    // Bits of a group number
+    private static int bitsFor(int groups) {
+        return 32 - Integer.numberOfLeadingZeros(groups - 1);
+    }
+
+    // Symbol counts of every group, from the first contexts of order
+    private static long[][] groupSums(int[][] counts, int[] groupOf, int groups, Integer[] order, int contexts) {
+        long[][] sums = new long[groups][Main.ALPHABET_SIZE];
+        for (int i = 0; i < contexts; i++) {
+            int c = order[i];
+            for (int s = 0; s < Main.ALPHABET_SIZE; s++) {
+                sums[groupOf[c]][s] += counts[c][s];
+            }
+        }
+        return sums;
+    }
+
+    private static byte[][] encodeStreams(ByteBuffer data, Grouping grouping, int[] bounds, ForkJoinPool pool) {
+        CanonicalCode[] byContext = new CanonicalCode[Main.ALPHABET_SIZE];
+        for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+            byContext[c] = grouping.codes[grouping.groupOf[c]];
+        }
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        for (int k = 0; k < Main.STREAMS; k++) {
+            int from = bounds[k];
+            int to = bounds[k + 1];
+            tasks.add(pool.submit(() -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((to - from) / 2 + 16);
+                try (BitWriter out = new BitWriter(bytes)) {
+                    int previous = 0;
+                    for (int i = from; i < to; i++) {
+                        int symbol = data.get(i) & 0xFF;
+                        CanonicalCode code = byContext[previous];
+                        out.writeBits(code.code(symbol), code.length(symbol));
+                        previous = symbol;
+                    }
+                }
+                return bytes.toByteArray();
+            }));
+        }
+        byte[][] streams = new byte[Main.STREAMS][];
+        for (int k = 0; k < Main.STREAMS; k++) {
+            streams[k] = tasks.get(k).join();
+        }
+        return streams;
+    }
+
+    public static void decode(String inputPath, String outputPath) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(inputPath));
+        BitBuffer in = new BitBuffer(data);
+        if (data.length < 6 || in.readBits(16) != MAGIC)
+            throw new IOException("Not an order-1 Huffman file");
+        long symbolCount = in.readBits(32) & 0xFFFFFFFFL;
+        if (symbolCount > Integer.MAX_VALUE - 8)
+            throw new IOException("Corrupt Huffman file");
+        CanonicalCode[] codes = new CanonicalCode[in.readBits(GROUP_BITS) + 1];
+        int bits = bitsFor(codes.length);
+        int[] groupOf = new int[Main.ALPHABET_SIZE];
+        for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+            groupOf[c] = bits > 0 ? in.readBits(bits) : 0;
+            if (groupOf[c] >= codes.length)
+                throw new IOException("Corrupt Huffman header");
+        }
+        for (int g = 0; g < codes.length; g++) {
+            codes[g] = CanonicalCode.readLengths(in);
+        }
+        int[] sizes = new int[Main.STREAMS];
+        long streamBytes = 0;
+        for (int k = 0; k < Main.STREAMS - 1; k++) {
+            sizes[k] = in.readBits(32);
+            if (sizes[k] < 0)
+                throw new IOException("Corrupt Huffman file");
+            streamBytes += sizes[k];
+        }
+        int offset = (int) ((in.position() + 7) / 8);
+        if (offset + streamBytes > data.length)
+            throw new EOFException("Huffman file ended early");
+        sizes[Main.STREAMS - 1] = (int) (data.length - offset - streamBytes);
+
+        // Every code has at least one bit, which bounds the symbol count of every stream
+        int[] bounds = Main.streamBounds((int) symbolCount);
+        for (int k = 0; k < Main.STREAMS; k++) {
+            if (bounds[k + 1] - bounds[k] > sizes[k] * 8L)
+                throw new IOException("Corrupt Huffman file");
+        }
+        BitBuffer[] streams = new BitBuffer[Main.STREAMS];
+        for (int k = 0; k < Main.STREAMS; k++) {
+            streams[k] = new BitBuffer(data, offset, sizes[k]);
+            offset += sizes[k];
+        }
+        byte[] decoded = new byte[(int) symbolCount];
+        new Decoder(codes, groupOf).decode(streams, decoded, bounds);
+        for (int k = 0; k < Main.STREAMS; k++) {
+            if (streams[k].position() > sizes[k] * 8L)
+                throw new EOFException("Huffman file ended early");
+        }
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            out.write(decoded);
+        }
+    }
+
+    // Looks up ROOT_BITS bits at a time like CanonicalCode, in a table picked
+    // by the previous byte. An entry holds a second symbol when its code, in
+    // the context of the first symbol, fits in the same bits. Entry layout as
+    // in CanonicalCode's pair table; -1 when the first code is longer.
+    static class Decoder {
+        private static final int ROOT_BITS = CanonicalCode.ROOT_BITS;
+
+        private final CanonicalCode[] codeByContext = new CanonicalCode[Main.ALPHABET_SIZE];
+        private final int[][] pairsByContext = new int[Main.ALPHABET_SIZE][];
+        private final int maxLength;
+
+        Decoder(CanonicalCode[] codes, int[] groupOf) {
+            int[][] pairs = new int[codes.length][1 << ROOT_BITS];
+            for (int g = 0; g < codes.length; g++) {
+                for (int i = 0; i < 1 << ROOT_BITS; i++) {
+                    int first = codes[g].entryAt(i, ROOT_BITS);
+                    if (first == 0) {
+                        pairs[g][i] = -1;
+                        continue;
+                    }
+                    int length = first & 31;
+                    int rest = ROOT_BITS - length;
+                    int second = rest == 0 ? 0
+                            : codes[groupOf[first >>> 5]].entryAt(i & ((1 << rest) - 1), rest);
+                    if (second != 0)
+                        pairs[g][i] = (second >>> 5) << 16 | (first >>> 5) << 8 | 1 << 5 | (length + (second & 31));
+                    else
+                        pairs[g][i] = (first >>> 5) << 8 | length;
+                }
+            }
+            int max = 1;
+            for (int c = 0; c < Main.ALPHABET_SIZE; c++) {
+                codeByContext[c] = codes[groupOf[c]];
+                pairsByContext[c] = pairs[groupOf[c]];
+                max = Math.max(max, codeByContext[c].maxLength());
+            }
+            maxLength = max;
+        }
+
+        // The four streams take turns. The first symbol of every stream is
+        // decoded on its own, in context 0; after that the context is the
+        // last byte written.
+        void decode(BitBuffer[] in, byte[] out, int[] bounds) throws IOException {
+            BitBuffer in0 = in[0];
+            BitBuffer in1 = in[1];
+            BitBuffer in2 = in[2];
+            BitBuffer in3 = in[3];
+            int n0 = decodeFirst(in0, out, bounds[0], bounds[1]);
+            int n1 = decodeFirst(in1, out, bounds[1], bounds[2]);
+            int n2 = decodeFirst(in2, out, bounds[2], bounds[3]);
+            int n3 = decodeFirst(in3, out, bounds[3], bounds[4]);
+            int perRefill = Math.max(1, BitBuffer.REFILL_BITS / Math.max(ROOT_BITS, maxLength));
+            // Room for perRefill lookups of two symbols in every stream
+            int margin = 2 * perRefill;
+            while (n0 + margin < bounds[1] && n1 + margin < bounds[2] && n2 + margin < bounds[3]
+                    && n3 + margin < bounds[4]) {
+                in0.refill();
+                in1.refill();
+                in2.refill();
+                in3.refill();
+                for (int k = 0; k < perRefill; k++) {
+                    n0 = decodeStep(in0, out, n0);
+                    n1 = decodeStep(in1, out, n1);
+                    n2 = decodeStep(in2, out, n2);
+                    n3 = decodeStep(in3, out, n3);
+                }
+            }
+            decodeTail(in0, out, n0, bounds[1]);
+            decodeTail(in1, out, n1, bounds[2]);
+            decodeTail(in2, out, n2, bounds[3]);
+            decodeTail(in3, out, n3, bounds[4]);
+        }
+
+        private int decodeFirst(BitBuffer in, byte[] out, int from, int to) throws IOException {
+            if (from == to)
+                return from;
+            in.refill();
+            out[from] = (byte) codeByContext[0].decodeSymbol(in);
+            return from + 1;
+        }
+
+        // One lookup after out[n - 1]: one or two symbols go to out from n.
+        // Returns the new n.
+        private int decodeStep(BitBuffer in, byte[] out, int n) throws IOException {
+            int previous = out[n - 1] & 0xFF;
+            int entry = pairsByContext[previous][in.peek(ROOT_BITS)];
+            if (entry < 0) {
+                out[n] = (byte) codeByContext[previous].decodeSymbol(in);
+                return n + 1;
+            }
+            in.skip(entry & 31);
+            out[n] = (byte) (entry >>> 8);
+            out[n + 1] = (byte) (entry >>> 16);
+            return n + 1 + (entry >>> 5 & 1);
+        }
+
+        private void decodeTail(BitBuffer in, byte[] out, int from, int to) throws IOException {
+            for (int n = from; n < to; n++) {
+                in.refill();
+                out[n] = (byte) codeByContext[out[n - 1] & 0xFF].decodeSymbol(in);
+            }
+        }
+    }
+}
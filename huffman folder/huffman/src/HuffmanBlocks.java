@@ -0,0 +1,120 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+// Block-adaptive Huffman. The input is read one block at a time and every
+// block gets a canonical code of its own, so a code follows the data it
+// codes and memory stays at about one block. Layout:
+//
+//   magic "HB", block size
+//   block: type (1 byte), length, then
+//     HUFFMAN: payload length and the payload (see Main.encodeBlock)
+//     STORED:  the bytes as they are
+//   END (1 byte)
+//
+// A block is stored whenever its codes would not come out shorter.
+public class HuffmanBlocks {
+    public static final int MAGIC = 0x4842; // "HB"
+    public static final int BLOCK_SIZE = 128 * 1024;
+    static final int STORED = 0;
+    static final int HUFFMAN = 1;
+    static final int END = 2;
+
+    public static void encode(String inputPath, String outputPath, int blockSize, int maxLength)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(inputPath));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            encode(in, out, blockSize, maxLength);
+        }
+    }
+
+    public static void encode(InputStream in, OutputStream out, int blockSize, int maxLength) throws IOException {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize must be positive");
+        if (maxLength < 1 || maxLength > CanonicalCode.MAX_LENGTH)
+            throw new IllegalArgumentException("maxLength must be between 1 and " + CanonicalCode.MAX_LENGTH);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(MAGIC);
+        dataOut.writeInt(blockSize);
+        byte[] block = new byte[blockSize];
+        long originalSize = 0;
+        int blocks = 0;
+        int stored = 0;
+        int longest = 0;
+        int length;
+        while ((length = in.readNBytes(block, 0, blockSize)) > 0) {
+            ByteBuffer data = ByteBuffer.wrap(block, 0, length).slice();
+            int[] frequencies = Main.countFrequencies(data, pool);
+            CanonicalCode code = Main.generateHuffmanCodes(Main.buildHuffmanTree(frequencies), frequencies,
+                    maxLength);
+            longest = Math.max(longest, code.maxLength());
+            byte[] payload = Main.encodeBlock(data, code, pool);
+            if (payload.length + 4 < length) {
+                dataOut.writeByte(HUFFMAN);
+                dataOut.writeInt(length);
+                dataOut.writeInt(payload.length);
+                dataOut.write(payload);
+            } else {
+                dataOut.writeByte(STORED);
+                dataOut.writeInt(length);
+                dataOut.write(block, 0, length);
+                stored++;
+            }
+            originalSize += length;
+            blocks++;
+        }
+        dataOut.writeByte(END);
+        dataOut.flush();
+
+        System.out.println("Original size: " + originalSize * 8 + " bits");
+        System.out.println("Compressed size: " + dataOut.size() * 8L + " bits");
+        System.out.println("Blocks: " + blocks + " (" + stored + " stored)");
+        if (longest > maxLength)
+            System.out.println("Length limit raised to " + longest + " bits for blocks with more than "
+                    + (1 << maxLength) + " symbols");
+    }
+
+    public static void decode(String inputPath, String outputPath) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(inputPath));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            decode(in, out);
+        }
+    }
+
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readUnsignedShort() != MAGIC)
+            throw new IOException("Not a block Huffman file");
+        int blockSize = dataIn.readInt();
+        if (blockSize < 1)
+            throw new IOException("Corrupt block Huffman header");
+        byte[] buffer = new byte[0];
+        while (true) {
+            int type = dataIn.readUnsignedByte();
+            if (type == END)
+                break;
+            int length = dataIn.readInt();
+            if (length < 1 || length > blockSize)
+                throw new IOException("Corrupt block length: " + length);
+            if (type == STORED) {
+                if (buffer.length < length)
+                    buffer = new byte[length];
+                dataIn.readFully(buffer, 0, length);
+                out.write(buffer, 0, length);
+            } else if (type == HUFFMAN) {
+                // A Huffman payload is always shorter than the block it replaces
+                int payloadLength = dataIn.readInt();
+                if (payloadLength < 1 || payloadLength >= length)
+                    throw new IOException("Corrupt block payload length: " + payloadLength);
+                if (buffer.length < payloadLength)
+                    buffer = new byte[payloadLength];
+                dataIn.readFully(buffer, 0, payloadLength);
+                out.write(Main.decodeBlock(buffer, 0, payloadLength, length));
+            } else {
+                throw new IOException("Unknown block type: " + type);
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HuffmanTest {
+
+    public static void main(String[] args) {
+        try {
+            testTwoSymbols();
+            testLongestCodes();
+            testShortLimits();
+            System.out.println("All tests passed successfully!");
+        } catch (AssertionError e) {
+            System.err.println("Test failed: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // One-bit codes: a refill must hold as many codes as the decoder takes
+    // between refills, in the single-stream, four-stream and block decoders.
+    private static void testTwoSymbols() throws IOException {
+        byte[] data = new byte[100000];
+        Random random = new Random(16);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (random.nextBoolean() ? 'a' : 'b');
+        }
+        for (int maxLength : new int[] { 1, 3, 19 }) {
+            roundTrip(data, maxLength, "two symbols");
+        }
+        System.out.println("Test 1 completed: two symbols at max lengths 1, 3 and 19");
+    }
+
+    // Codes of exactly maxLength bits: 8 equally likely symbols get 3-bit
+    // codes, and Fibonacci frequencies over 20 symbols a longest code of 19.
+    private static void testLongestCodes() throws IOException {
+        Random random = new Random(19);
+        byte[] uniform = new byte[100000];
+        for (int i = 0; i < uniform.length; i++) {
+            uniform[i] = (byte) random.nextInt(8);
+        }
+        roundTrip(uniform, 3, "8 symbols");
+
+        ByteArrayOutputStream fibonacci = new ByteArrayOutputStream();
+        int previous = 1;
+        int count = 1;
+        for (int symbol = 0; symbol < 20; symbol++) {
+            for (int i = 0; i < count; i++) {
+                fibonacci.write(symbol);
+            }
+            int next = previous + count;
+            previous = count;
+            count = next;
+        }
+        byte[] skewed = fibonacci.toByteArray();
+        for (int i = skewed.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte swap = skewed[i];
+            skewed[i] = skewed[j];
+            skewed[j] = swap;
+        }
+        roundTrip(skewed, 19, "Fibonacci frequencies");
+        System.out.println("Test 2 completed: longest codes of 3 and 19 bits");
+    }
+
+    // Limits shorter than the alphabet needs are raised: 3 symbols at 1 bit,
+    // all 256 byte values at 7 bits.
+    private static void testShortLimits() throws IOException {
+        Random random = new Random(18);
+        byte[] three = new byte[50000];
+        for (int i = 0; i < three.length; i++) {
+            three[i] = (byte) ('a' + random.nextInt(3));
+        }
+        roundTrip(three, 1, "3 symbols");
+
+        byte[] bytes = new byte[50000];
+        random.nextBytes(bytes);
+        roundTrip(bytes, 7, "256 symbols");
+        System.out.println("Test 3 completed: limits raised to fit 3 and 256 symbols");
+    }
+
+    // Through the whole-file, order-1 and block formats
+    private static void roundTrip(byte[] data, int maxLength, String name) throws IOException {
+        File input = File.createTempFile("huffman", ".in");
+        File encoded = File.createTempFile("huffman", ".bin");
+        File decoded = File.createTempFile("huffman", ".out");
+        try {
+            Files.write(input.toPath(), data);
+            Main.encode(input.getPath(), encoded.getPath(), maxLength);
+            Main.decode(encoded.getPath(), decoded.getPath());
+            assertEquals(data, Files.readAllBytes(decoded.toPath()), name + " at max length " + maxLength);
+
+            ContextHuffman.encode(input.getPath(), encoded.getPath(), maxLength);
+            ContextHuffman.decode(encoded.getPath(), decoded.getPath());
+            assertEquals(data, Files.readAllBytes(decoded.toPath()),
+                    name + " with order-1 contexts at max length " + maxLength);
+        } finally {
+            input.delete();
+            encoded.delete();
+            decoded.delete();
+        }
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        HuffmanBlocks.encode(new ByteArrayInputStream(data), blocks, 16 * 1024, maxLength);
+        ByteArrayOutputStream blocksDecoded = new ByteArrayOutputStream();
+        HuffmanBlocks.decode(new ByteArrayInputStream(blocks.toByteArray()), blocksDecoded);
+        assertEquals(data, blocksDecoded.toByteArray(), name + " in blocks at max length " + maxLength);
+    }
+
+    private static void assertEquals(byte[] expected, byte[] actual, String message) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -1,8 +1,23 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntUnaryOperator;
 
 public class Main {
 
+    static final int MAGIC = 0x4846; // "HF"
+    static final int TANS_MAGIC = 0x4841; // "HA"
+    // The payload is split into this many bitstreams that decode independently
+    static final int STREAMS = 4;
+    // Symbols are the bytes of the file, whatever it holds
+    static final int ALPHABET_SIZE = 256;
+    // Shorter inputs are counted on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
     static class HuffmanNode implements Comparable<HuffmanNode> {
         char character;
         int frequency;
@@ -23,19 +38,80 @@ public class Main {
         }
     }
 
-    public static double calculateEntropy(Map<Character, Integer> frequencyMap, int totalCharacters) {
+    public static double calculateEntropy(int[] frequencies, int totalCharacters) {
         double entropy = 0.0;
-        for (var entry : frequencyMap.entrySet()) {
-            double probability = (double) entry.getValue() / totalCharacters;
+        for (int frequency : frequencies) {
+            if (frequency == 0)
+                continue;
+            double probability = (double) frequency / totalCharacters;
             entropy -= probability * (Math.log(probability) / Math.log(2));
         }
         return entropy;
     }
 
-    public static HuffmanNode buildHuffmanTree(Map<Character, Integer> frequencyMap) {
+    // Conditional entropy of a byte given the byte before it
+    public static double calculateOrder1Entropy(int[][] contextFrequencies, int totalCharacters) {
+        double entropy = 0.0;
+        for (int[] frequencies : contextFrequencies) {
+            int contextTotal = Arrays.stream(frequencies).sum();
+            if (contextTotal > 0)
+                entropy += calculateEntropy(frequencies, contextTotal) * contextTotal / totalCharacters;
+        }
+        return entropy;
+    }
+
+    // Byte counts by the byte before them: counts[previous][symbol]. The
+    // previous byte is taken as 0 at every start in bounds, the last entry of
+    // which is the end of the data.
+    public static int[][] countContextFrequencies(ByteBuffer data, int[] bounds) {
+        int[][] counts = new int[ALPHABET_SIZE][ALPHABET_SIZE];
+        for (int k = 0; k < bounds.length - 1; k++) {
+            int previous = 0;
+            for (int i = bounds[k]; i < bounds[k + 1]; i++) {
+                int symbol = data.get(i) & 0xFF;
+                counts[previous][symbol]++;
+                previous = symbol;
+            }
+        }
+        return counts;
+    }
+
+    // Every thread counts its own slice of data into its own histogram, and
+    // the histograms are added up at the end.
+    public static int[] countFrequencies(ByteBuffer data, ForkJoinPool pool) {
+        int length = data.remaining();
+        if (length < PARALLEL_THRESHOLD)
+            return countFrequencies(data, 0, length);
+        int slices = pool.getParallelism();
+        List<ForkJoinTask<int[]>> tasks = new ArrayList<>();
+        for (int i = 0; i < slices; i++) {
+            int from = (int) ((long) length * i / slices);
+            int to = (int) ((long) length * (i + 1) / slices);
+            tasks.add(pool.submit(() -> countFrequencies(data, from, to)));
+        }
+        int[] frequencies = new int[ALPHABET_SIZE];
+        for (ForkJoinTask<int[]> task : tasks) {
+            int[] histogram = task.join();
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                frequencies[c] += histogram[c];
+            }
+        }
+        return frequencies;
+    }
+
+    private static int[] countFrequencies(ByteBuffer data, int from, int to) {
+        int[] histogram = new int[ALPHABET_SIZE];
+        for (int i = from; i < to; i++) {
+            histogram[data.get(i) & 0xFF]++;
+        }
+        return histogram;
+    }
+
+    public static HuffmanNode buildHuffmanTree(int[] frequencies) {
         PriorityQueue<HuffmanNode> pq = new PriorityQueue<>();
-        for (var entry : frequencyMap.entrySet()) {
-            pq.add(new HuffmanNode(entry.getKey(), entry.getValue()));
+        for (int c = 0; c < frequencies.length; c++) {
+            if (frequencies[c] > 0)
+                pq.add(new HuffmanNode((char) c, frequencies[c]));
         }
         while (pq.size() > 1) {
             HuffmanNode left = pq.poll();
@@ -48,15 +124,50 @@ public class Main {
         return pq.poll();
     }
 
-    public static void generateHuffmanCodes(HuffmanNode root, String code, Map<Character, String> huffmanCodes) {
-        if (root == null)
-            return;
-        if (root.left == null && root.right == null) {
-            huffmanCodes.put(root.character, code);
+    // Average bits per symbol when symbol c gets a code of length.applyAsInt(c) bits
+    public static double averageCodeLength(int[] frequencies, int totalCharacters, IntUnaryOperator length) {
+        long bits = 0;
+        for (int c = 0; c < frequencies.length; c++) {
+            if (frequencies[c] > 0)
+                bits += (long) frequencies[c] * length.applyAsInt(c);
+        }
+        return (double) bits / totalCharacters;
+    }
+
+    // Code length of every byte value: its leaf depth in the Huffman tree
+    public static int[] codeLengths(HuffmanNode root, int alphabetSize) {
+        int[] lengths = new int[alphabetSize];
+        assignCodeLengths(root, 0, lengths);
+        return lengths;
+    }
+
+    // The tree's code lengths as a canonical code. When some are longer than
+    // maxLength, package-merge finds the best lengths within it instead.
+    public static CanonicalCode generateHuffmanCodes(HuffmanNode root, int[] frequencies, int maxLength)
+            throws IOException {
+        maxLength = lengthLimit(frequencies, maxLength);
+        int[] lengths = codeLengths(root, frequencies.length);
+        if (Arrays.stream(lengths).max().orElse(0) > maxLength)
+            lengths = CanonicalCode.packageMerge(frequencies, maxLength);
+        return new CanonicalCode(lengths);
+    }
+
+    // maxLength, raised to the shortest limit whose 2^limit codes cover every
+    // symbol that occurs.
+    public static int lengthLimit(int[] frequencies, int maxLength) {
+        long symbols = Arrays.stream(frequencies).filter(f -> f > 0).count();
+        int needed = symbols <= 1 ? 1 : 64 - Long.numberOfLeadingZeros(symbols - 1);
+        return Math.max(maxLength, needed);
+    }
+
+    private static void assignCodeLengths(HuffmanNode node, int depth, int[] lengths) {
+        if (node.left == null && node.right == null) {
+            // A lone symbol still needs one bit
+            lengths[node.character] = Math.max(depth, 1);
             return;
         }
-        generateHuffmanCodes(root.left, code + "0", huffmanCodes);
-        generateHuffmanCodes(root.right, code + "1", huffmanCodes);
+        assignCodeLengths(node.left, depth + 1, lengths);
+        assignCodeLengths(node.right, depth + 1, lengths);
     }
 
     public static HuffmanNode rebuildHuffmanTree(Map<Character, String> huffmanCodes) {
@@ -81,116 +192,448 @@ public class Main {
         return root;
     }
 
-    public static void encode(String inputPath, String outputBinaryPath, String outputCodeTablePath)
-            throws IOException {
-        String inputData = readTextFile(inputPath);
-        if (inputData.isEmpty())
-            return;
-        Map<Character, Integer> frequencyMap = new HashMap<>();
-        for (char c : inputData.toCharArray()) {
-            frequencyMap.put(c, frequencyMap.getOrDefault(c, 0) + 1);
+    public static void encode(String inputPath, String outputPath) throws IOException {
+        encode(inputPath, outputPath, CanonicalCode.MAX_LENGTH);
+    }
+
+    // One self-contained file: magic, symbol count (32 bits), the code lengths
+    // (see CanonicalCode.writeLengths) and the byte length of every stream but
+    // the last, then the streams. Stream k holds the codes of the k-th quarter
+    // of the input, so the four can be encoded and decoded side by side. No
+    // code is longer than maxLength bits.
+    public static void encode(String inputPath, String outputPath, int maxLength) throws IOException {
+        if (maxLength < 1 || maxLength > CanonicalCode.MAX_LENGTH)
+            throw new IllegalArgumentException("maxLength must be between 1 and " + CanonicalCode.MAX_LENGTH);
+        try (FileChannel fileIn = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ)) {
+            if (fileIn.size() > Integer.MAX_VALUE - 8)
+                throw new IOException("Too large for one Huffman file: " + fileIn.size() + " bytes");
+            encode(fileIn.map(FileChannel.MapMode.READ_ONLY, 0, fileIn.size()), outputPath, maxLength);
         }
-        double entropy = calculateEntropy(frequencyMap, inputData.length());
+    }
+
+    private static void encode(ByteBuffer inputData, String outputPath, int maxLength) throws IOException {
+        int length = inputData.remaining();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[] frequencies = countFrequencies(inputData, pool);
+        double entropy = calculateEntropy(frequencies, length);
         System.out.println("Entropy: " + entropy);
-        HuffmanNode root = buildHuffmanTree(frequencyMap);
-        Map<Character, String> huffmanCodes = new HashMap<>();
-        generateHuffmanCodes(root, "", huffmanCodes);
-        try (FileWriter writer = new FileWriter(outputCodeTablePath)) {
-            for (var entry : huffmanCodes.entrySet()) {
-                String key = (entry.getKey() == '\n') ? "\\n" : String.valueOf(entry.getKey());
-                writer.write(key + ":" + entry.getValue() + "\n");
+        System.out.println("Order-1 entropy: "
+                + calculateOrder1Entropy(countContextFrequencies(inputData, new int[] { 0, length }), length));
+        CanonicalCode code = new CanonicalCode(new int[0]);
+        if (length > 0) {
+            HuffmanNode root = buildHuffmanTree(frequencies);
+            int limit = lengthLimit(frequencies, maxLength);
+            if (limit > maxLength) {
+                System.out.println("Length limit raised from " + maxLength + " to " + limit + " bits to fit "
+                        + Arrays.stream(frequencies).filter(f -> f > 0).count() + " symbols");
+                maxLength = limit;
             }
+            code = generateHuffmanCodes(root, frequencies, maxLength);
+            // What the length limit costs against unrestricted Huffman codes
+            int[] huffmanLengths = codeLengths(root, frequencies.length);
+            double huffmanLength = averageCodeLength(frequencies, length, c -> huffmanLengths[c]);
+            double limitedLength = averageCodeLength(frequencies, length, code::length);
+            System.out.println("Huffman code length: " + huffmanLength + " bits/symbol");
+            System.out.println(String.format("Limited to %d bits: %s bits/symbol (+%.3f%%)", maxLength,
+                    limitedLength, 100 * (limitedLength - huffmanLength) / huffmanLength));
         }
-        StringBuilder encodedData = new StringBuilder();
-        for (char c : inputData.toCharArray()) {
-            encodedData.append(huffmanCodes.get(c));
-        }
-        try (FileWriter writer = new FileWriter(outputBinaryPath)) {
-            writer.write(encodedData.toString());
+        byte[] block = encodeBlock(inputData, code, pool);
+        long compressedSize;
+        try (BitWriter out = new BitWriter(new BufferedOutputStream(new FileOutputStream(outputPath)))) {
+            out.writeBits(MAGIC, 16);
+            out.writeBits(length, 32);
+            out.writeBytes(block);
+            compressedSize = out.getBitsWritten();
         }
-        int originalSize = inputData.length() * 8;
-        int compressedSize = encodedData.length();
+        long originalSize = length * 8L;
         System.out.println("Original size: " + originalSize + " bits");
         System.out.println("Compressed size: " + compressedSize + " bits");
     }
 
-    public static void decode(String inputBinaryPath, String codeTablePath, String outputPath) throws IOException {
-        Map<Character, String> huffmanCodes = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(codeTablePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.isEmpty())
-                    continue;
-                String[] parts = line.split(":", 2);
-                if (parts.length < 2)
-                    continue;
-                String keyPart = parts[0];
-                char ch;
-                if (keyPart.equals("\\n"))
-                    ch = '\n';
-                else if (keyPart.isEmpty())
-                    ch = ' ';
-                else
-                    ch = keyPart.charAt(0);
-                huffmanCodes.put(ch, parts[1]);
-            }
+    // The coded data without magic and symbol count: the code lengths, the
+    // byte length of every stream but the last, then the streams.
+    static byte[] encodeBlock(ByteBuffer data, CanonicalCode code, ForkJoinPool pool) throws IOException {
+        byte[][] streams = encodeStreams(data, code, pool);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.remaining() / 2 + 64);
+        try (BitWriter out = new BitWriter(bytes)) {
+            code.writeLengths(out);
+            writeStreams(out, streams);
         }
-        HuffmanNode root = rebuildHuffmanTree(huffmanCodes);
-        String encodedData = readTextFile(inputBinaryPath).trim();
-        StringBuilder decodedText = new StringBuilder();
+        return bytes.toByteArray();
+    }
+
+    // The byte length of every stream but the last, then the streams from
+    // the next byte boundary
+    static void writeStreams(BitWriter out, byte[][] streams) throws IOException {
+        for (int k = 0; k < STREAMS - 1; k++) {
+            out.writeBits(streams[k].length, 32);
+        }
+        out.alignToByte();
+        for (byte[] stream : streams) {
+            out.writeBytes(stream);
+        }
+    }
+
+    // Reads the stream lengths writeStreams wrote into sizes, given that the
+    // last stream ends length bytes after the start of in. Returns where the
+    // first stream starts, in bytes from the start of in.
+    static int readStreamSizes(BitBuffer in, int length, int[] sizes) throws IOException {
+        long streamBytes = 0;
+        for (int k = 0; k < STREAMS - 1; k++) {
+            sizes[k] = in.readBits(32);
+            if (sizes[k] < 0)
+                throw new IOException("Corrupt stream size");
+            streamBytes += sizes[k];
+        }
+        int headerBytes = (int) ((in.position() + 7) / 8);
+        if (headerBytes + streamBytes > length)
+            throw new EOFException("File ended early");
+        sizes[STREAMS - 1] = (int) (length - headerBytes - streamBytes);
+        return headerBytes;
+    }
+
+    // First symbol of every stream, and the symbol count at the end
+    static int[] streamBounds(int symbolCount) {
+        int[] bounds = new int[STREAMS + 1];
+        for (int k = 0; k <= STREAMS; k++) {
+            bounds[k] = (int) ((long) symbolCount * k / STREAMS);
+        }
+        return bounds;
+    }
+
+    // Every stream is encoded by its own task
+    public static byte[][] encodeStreams(ByteBuffer data, CanonicalCode code, ForkJoinPool pool) {
+        int[] bounds = streamBounds(data.remaining());
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        for (int k = 0; k < STREAMS; k++) {
+            int from = bounds[k];
+            int to = bounds[k + 1];
+            tasks.add(pool.submit(() -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((to - from) / 2 + 16);
+                try (BitWriter out = new BitWriter(bytes)) {
+                    for (int i = from; i < to; i++) {
+                        int symbol = data.get(i) & 0xFF;
+                        out.writeBits(code.code(symbol), code.length(symbol));
+                    }
+                }
+                return bytes.toByteArray();
+            }));
+        }
+        byte[][] streams = new byte[STREAMS][];
+        for (int k = 0; k < STREAMS; k++) {
+            streams[k] = tasks.get(k).join();
+        }
+        return streams;
+    }
+
+    // The first two bytes of a file, which tell its format; -1 if shorter
+    public static int readMagic(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            int first = in.read();
+            int second = in.read();
+            return second < 0 ? -1 : first << 8 | second;
+        }
+    }
+
+    public static void decode(String inputPath, String outputPath) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(inputPath));
+        BitBuffer in = new BitBuffer(data);
+        if (data.length < 6 || in.readBits(16) != MAGIC)
+            throw new IOException("Not a Huffman file");
+        long symbolCount = in.readBits(32) & 0xFFFFFFFFL;
+        if (symbolCount > Integer.MAX_VALUE - 8)
+            throw new IOException("Corrupt Huffman file");
+        byte[] decoded = decodeBlock(data, 6, data.length - 6, (int) symbolCount);
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            out.write(decoded);
+        }
+    }
+
+    // Decodes symbolCount symbols from what encodeBlock wrote, found at offset
+    public static byte[] decodeBlock(byte[] data, int offset, int length, int symbolCount) throws IOException {
+        BitBuffer in = new BitBuffer(data, offset, length);
+        CanonicalCode code = CanonicalCode.readLengths(in);
+        int[] sizes = new int[STREAMS];
+        int headerBytes = readStreamSizes(in, length, sizes);
+
+        // Every code has at least minLength bits, which bounds the symbol count of every stream
+        int[] bounds = streamBounds(symbolCount);
+        for (int k = 0; k < STREAMS; k++) {
+            int count = bounds[k + 1] - bounds[k];
+            if (count > 0 && (code.minLength() == 0 || count > sizes[k] * 8L / code.minLength()))
+                throw new IOException("Corrupt Huffman file");
+        }
+        byte[] decoded = new byte[symbolCount];
+        decodeStreams(code, data, offset + headerBytes, sizes, decoded);
+        return decoded;
+    }
+
+    // The same container as encode with a tANS code in place of the Huffman
+    // code: magic, symbol count (32 bits), the symbol counts (see
+    // TansCode.writeCounts), then the streams as in encode.
+    public static void encodeTans(String inputPath, String outputPath) throws IOException {
+        try (FileChannel fileIn = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ)) {
+            if (fileIn.size() > Integer.MAX_VALUE - 8)
+                throw new IOException("Too large for one tANS file: " + fileIn.size() + " bytes");
+            encodeTans(fileIn.map(FileChannel.MapMode.READ_ONLY, 0, fileIn.size()), outputPath);
+        }
+    }
+
+    private static void encodeTans(ByteBuffer inputData, String outputPath) throws IOException {
+        int length = inputData.remaining();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[] frequencies = countFrequencies(inputData, pool);
+        System.out.println("Entropy: " + calculateEntropy(frequencies, length));
+        int tableLog = TansCode.bestTableLog(frequencies);
+        TansCode code = new TansCode(TansCode.normalize(frequencies, tableLog), tableLog);
+        if (length > 0) {
+            int[] huffmanLengths = codeLengths(buildHuffmanTree(frequencies), frequencies.length);
+            System.out.println("Huffman code length: "
+                    + averageCodeLength(frequencies, length, c -> huffmanLengths[c]) + " bits/symbol");
+            System.out.println("tANS code length: " + code.averageCost(frequencies) + " bits/symbol ("
+                    + (1 << tableLog) + " states)");
+        }
+        byte[][] streams = code.encodeStreams(inputData, pool);
+        long compressedSize;
+        try (BitWriter out = new BitWriter(new BufferedOutputStream(new FileOutputStream(outputPath)))) {
+            out.writeBits(TANS_MAGIC, 16);
+            out.writeBits(length, 32);
+            code.writeCounts(out);
+            writeStreams(out, streams);
+            compressedSize = out.getBitsWritten();
+        }
+        System.out.println("Original size: " + length * 8L + " bits");
+        System.out.println("Compressed size: " + compressedSize + " bits");
+    }
+
+    public static void decodeTans(String inputPath, String outputPath) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(inputPath));
+        BitBuffer in = new BitBuffer(data);
+        if (data.length < 6 || in.readBits(16) != TANS_MAGIC)
+            throw new IOException("Not a tANS file");
+        long symbolCount = in.readBits(32) & 0xFFFFFFFFL;
+        if (symbolCount > Integer.MAX_VALUE - 8)
+            throw new IOException("Corrupt tANS file");
+        TansCode code = TansCode.readCounts(in);
+        int[] sizes = new int[STREAMS];
+        int offset = readStreamSizes(in, data.length, sizes);
+
+        // No symbol costs less than the most likely one, which bounds the
+        // symbol count of every stream unless a single symbol takes the table
+        int maxCount = 0;
+        for (int s = 0; s < ALPHABET_SIZE; s++) {
+            maxCount = Math.max(maxCount, code.count(s));
+        }
+        double minCost = code.tableLog() - Math.log(maxCount) / Math.log(2);
+        int[] bounds = streamBounds((int) symbolCount);
+        for (int k = 0; k < STREAMS; k++) {
+            if (minCost > 0 && (bounds[k + 1] - bounds[k]) * minCost > sizes[k] * 8L + code.tableLog() + 1)
+                throw new IOException("Corrupt tANS file");
+        }
+        BitBuffer[] streams = new BitBuffer[STREAMS];
+        for (int k = 0; k < STREAMS; k++) {
+            streams[k] = new BitBuffer(data, offset, sizes[k]);
+            offset += sizes[k];
+        }
+        byte[] decoded = new byte[(int) symbolCount];
+        code.decode(streams, decoded, bounds);
+        for (int k = 0; k < STREAMS; k++) {
+            if (streams[k].position() > sizes[k] * 8L)
+                throw new EOFException("tANS file ended early");
+        }
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            out.write(decoded);
+        }
+    }
+
+    // Decodes the streams laid out from offset with the given byte sizes,
+    // taking turns between them.
+    public static void decodeStreams(CanonicalCode code, byte[] data, int offset, int[] sizes, byte[] out)
+            throws IOException {
+        BitBuffer[] in = new BitBuffer[STREAMS];
+        for (int k = 0; k < STREAMS; k++) {
+            in[k] = new BitBuffer(data, offset, sizes[k]);
+            offset += sizes[k];
+        }
+        code.decode(in, out, streamBounds(out.length));
+        for (int k = 0; k < STREAMS; k++) {
+            if (in[k].position() > sizes[k] * 8L)
+                throw new EOFException("Huffman file ended early");
+        }
+    }
+
+    // Decodes symbolCount symbols with the lookup tables of code
+    public static byte[] decodeByTable(CanonicalCode code, byte[] packed, int symbolCount) throws IOException {
+        byte[] decoded = new byte[symbolCount];
+        code.decode(new BitBuffer(packed), decoded, 0, symbolCount);
+        return decoded;
+    }
+
+    // Follows the tree one '0' or '1' at a time
+    public static byte[] decodeByTreeWalk(HuffmanNode root, String encodedData) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
         HuffmanNode current = root;
         for (char bit : encodedData.toCharArray()) {
             current = (bit == '0') ? current.left : current.right;
             if (current.left == null && current.right == null) {
-                decodedText.append(current.character);
+                decoded.write(current.character);
                 current = root;
             }
         }
-        writeTextFile(outputPath, decodedText.toString());
+        return decoded.toByteArray();
+    }
+
+    // Packs '0' and '1' characters eight to a byte, first bit highest
+    public static byte[] packBits(String bits) {
+        byte[] packed = new byte[(bits.length() + 7) / 8];
+        for (int i = 0; i < bits.length(); i++) {
+            if (bits.charAt(i) == '1')
+                packed[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+        }
+        return packed;
     }
 
-    public static String readTextFile(String path) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line);
+    // Decode speed of the lookup tables, on one stream and on four, against the tree walk
+    public static void benchmarkDecode(String inputPath) throws IOException {
+        byte[] inputData = Files.readAllBytes(Paths.get(inputPath));
+        if (inputData.length == 0)
+            return;
+        ByteBuffer input = ByteBuffer.wrap(inputData);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[] frequencies = countFrequencies(input, pool);
+        CanonicalCode code = generateHuffmanCodes(buildHuffmanTree(frequencies), frequencies,
+                CanonicalCode.MAX_LENGTH);
+        Map<Character, String> huffmanCodes = new HashMap<>();
+        for (int c = 0; c < frequencies.length; c++) {
+            if (frequencies[c] > 0)
+                huffmanCodes.put((char) c, code.codeString(c));
+        }
+        StringBuilder encodedData = new StringBuilder();
+        for (byte b : inputData) {
+            encodedData.append(huffmanCodes.get((char) (b & 0xFF)));
+        }
+        String encoded = encodedData.toString();
+        byte[] packed = packBits(encoded);
+        HuffmanNode root = rebuildHuffmanTree(huffmanCodes);
+        byte[][] streams = encodeStreams(input, code, pool);
+        int[] sizes = new int[STREAMS];
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int k = 0; k < STREAMS; k++) {
+            sizes[k] = streams[k].length;
+            joined.write(streams[k]);
+        }
+        byte[] streamData = joined.toByteArray();
+        int tableLog = TansCode.bestTableLog(frequencies);
+        TansCode tans = new TansCode(TansCode.normalize(frequencies, tableLog), tableLog);
+        byte[][] tansStreams = tans.encodeStreams(input, pool);
+
+        long treeTime = Long.MAX_VALUE;
+        long tableTime = Long.MAX_VALUE;
+        long streamsTime = Long.MAX_VALUE;
+        long tansTime = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            byte[] walked = decodeByTreeWalk(root, encoded);
+            treeTime = Math.min(treeTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            byte[] looked = decodeByTable(code, packed, inputData.length);
+            tableTime = Math.min(tableTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            byte[] interleaved = new byte[inputData.length];
+            decodeStreams(code, streamData, 0, sizes, interleaved);
+            streamsTime = Math.min(streamsTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            byte[] fromTans = new byte[inputData.length];
+            BitBuffer[] tansIn = new BitBuffer[STREAMS];
+            for (int k = 0; k < STREAMS; k++) {
+                tansIn[k] = new BitBuffer(tansStreams[k]);
             }
+            tans.decode(tansIn, fromTans, streamBounds(inputData.length));
+            tansTime = Math.min(tansTime, System.nanoTime() - start);
+            if (!Arrays.equals(walked, inputData) || !Arrays.equals(looked, inputData)
+                    || !Arrays.equals(interleaved, inputData) || !Arrays.equals(fromTans, inputData))
+                throw new IllegalStateException("Decoded data differs from the input");
         }
-        return content.toString();
+        System.out.printf("Tree walk:    %8.1f MB/s%n", inputData.length * 1e3 / treeTime);
+        System.out.printf("Lookup table: %8.1f MB/s (%.1fx)%n", inputData.length * 1e3 / tableTime,
+                (double) treeTime / tableTime);
+        System.out.printf("%d streams:    %8.1f MB/s (%.1fx)%n", STREAMS, inputData.length * 1e3 / streamsTime,
+                (double) treeTime / streamsTime);
+        System.out.printf("tANS %d streams:%8.1f MB/s (%.1fx)%n", STREAMS, inputData.length * 1e3 / tansTime,
+                (double) treeTime / tansTime);
     }
 
-    public static void writeTextFile(String path, String content) throws IOException {
-        try (FileWriter writer = new FileWriter(path)) {
-            writer.write(content);
+    // Asks until the answer is empty or a length between 1 and MAX_LENGTH. A
+    // limit too short for the input's symbols is raised when the code is built.
+    private static int readMaxLength(BufferedReader userInput) throws IOException {
+        while (true) {
+            System.out.println("Enter maximum code length (1-" + CanonicalCode.MAX_LENGTH
+                    + ", at least log2 of the symbol count; empty for " + CanonicalCode.MAX_LENGTH + "):");
+            String answer = userInput.readLine().trim();
+            if (answer.isEmpty())
+                return CanonicalCode.MAX_LENGTH;
+            try {
+                int limit = Integer.parseInt(answer);
+                if (limit >= 1 && limit <= CanonicalCode.MAX_LENGTH)
+                    return limit;
+            } catch (NumberFormatException e) {
+                // Asked again below
+            }
+            System.out.println("Not a length between 1 and " + CanonicalCode.MAX_LENGTH + ".");
         }
     }
 
     public static void main(String[] args) throws IOException {
         BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            System.out.println("Enter choice: encode (e), decode (d), or exit (x)");
+            System.out.println("Enter choice: encode (e), encode with order-1 contexts (c), encode with tANS (t), "
+                    + "decode (d), benchmark (b), or exit (x)");
             String answer = userInput.readLine().toLowerCase();
             if (answer.equals("x"))
                 break;
             else if (answer.equals("e")) {
-                System.out.println("Enter input text file path:");
+                System.out.println("Enter input file path:");
                 String inputFile = userInput.readLine();
                 System.out.println("Enter output binary file path:");
                 String outputBinaryFile = userInput.readLine();
-                System.out.println("Enter output code table file path:");
-                String outputCodeTableFile = userInput.readLine();
-                encode(inputFile, outputBinaryFile, outputCodeTableFile);
+                int limit = readMaxLength(userInput);
+                System.out.println("Enter block size in KB (empty for one code over the whole file, 0 for "
+                        + HuffmanBlocks.BLOCK_SIZE / 1024 + "):");
+                String blockSize = userInput.readLine().trim();
+                if (blockSize.isEmpty())
+                    encode(inputFile, outputBinaryFile, limit);
+                else
+                    HuffmanBlocks.encode(inputFile, outputBinaryFile, blockSize.equals("0")
+                            ? HuffmanBlocks.BLOCK_SIZE : Integer.parseInt(blockSize) * 1024, limit);
+            } else if (answer.equals("c")) {
+                System.out.println("Enter input file path:");
+                String inputFile = userInput.readLine();
+                System.out.println("Enter output binary file path:");
+                ContextHuffman.encode(inputFile, userInput.readLine(), CanonicalCode.MAX_LENGTH);
+            } else if (answer.equals("t")) {
+                System.out.println("Enter input file path:");
+                String inputFile = userInput.readLine();
+                System.out.println("Enter output binary file path:");
+                encodeTans(inputFile, userInput.readLine());
             } else if (answer.equals("d")) {
                 System.out.println("Enter input binary file path:");
                 String inputBinaryFile = userInput.readLine();
-                System.out.println("Enter input code table file path:");
-                String codeTableFile = userInput.readLine();
-                System.out.println("Enter output text file path:");
+                System.out.println("Enter output file path:");
                 String outputFile = userInput.readLine();
-                decode(inputBinaryFile, codeTableFile, outputFile);
+                int magic = readMagic(inputBinaryFile);
+                if (magic == HuffmanBlocks.MAGIC)
+                    HuffmanBlocks.decode(inputBinaryFile, outputFile);
+                else if (magic == ContextHuffman.MAGIC)
+                    ContextHuffman.decode(inputBinaryFile, outputFile);
+                else if (magic == TANS_MAGIC)
+                    decodeTans(inputBinaryFile, outputFile);
+                else
+                    decode(inputBinaryFile, outputFile);
+            } else if (answer.equals("b")) {
+                System.out.println("Enter input file path:");
+                benchmarkDecode(userInput.readLine());
             } else {
-                System.out.println("Invalid choice. Please enter e, d, or x.");
+                System.out.println("Invalid choice. Please enter e, c, t, d, b, or x.");
             }
         }
     }
@@ -0,0 +1,316 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// A table-based asymmetric numeral system (tANS, as in FSE). The symbol
+// frequencies are scaled to counts that sum to 2^tableLog, and every symbol
+// gets as many of the 2^tableLog states as its count, spread over the table.
+// A state carries a fraction of a bit from symbol to symbol, so a symbol
+// costs close to -log2 of its probability instead of a whole number of bits.
+//
+// The encoder runs backwards over the input and the decoder forwards. The
+// encoder keeps the bits every symbol puts out and writes them in input order
+// after its final state, so decoding reads straight ahead: one table entry
+// and one read per symbol.
+public class TansCode {
+    // Below 32 states the spreading step would not be odd
+    public static final int MIN_TABLE_LOG = 5;
+    public static final int MAX_TABLE_LOG = 12;
+
+    private final int tableLog;
+    private final int[] counts;
+    // Encoder: the next state (plus 2^tableLog) by symbol and state bits
+    private final int[] stateTable;
+    private final int[] deltaNbBits;
+    private final int[] deltaFindState;
+    // Decoder entries by state: base of the next state << 16 | bits to read << 8 | symbol
+    private final int[] decodeTable;
+
+    public TansCode(int[] counts, int tableLog) throws IOException {
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG)
+            throw new IOException("Bad table size " + tableLog);
+        int size = 1 << tableLog;
+        long sum = 0;
+        for (int count : counts) {
+            if (count < 0)
+                throw new IOException("Bad symbol count " + count);
+            sum += count;
+        }
+        if (sum != size)
+            throw new IOException("Symbol counts do not add up to the table size");
+        this.tableLog = tableLog;
+        this.counts = counts;
+
+        // Spread the symbols over the table with a step coprime to its size
+        int[] symbolAt = new int[size];
+        int step = (size >>> 1) + (size >>> 3) + 3;
+        int position = 0;
+        for (int s = 0; s < counts.length; s++) {
+            for (int i = 0; i < counts[s]; i++) {
+                symbolAt[position] = s;
+                position = (position + step) & (size - 1);
+            }
+        }
+
+        int[] cumulative = new int[counts.length + 1];
+        for (int s = 0; s < counts.length; s++) {
+            cumulative[s + 1] = cumulative[s] + counts[s];
+        }
+        stateTable = new int[size];
+        int[] next = Arrays.copyOf(cumulative, counts.length);
+        for (int u = 0; u < size; u++) {
+            stateTable[next[symbolAt[u]]++] = size + u;
+        }
+        deltaNbBits = new int[counts.length];
+        deltaFindState = new int[counts.length];
+        for (int s = 0; s < counts.length; s++) {
+            if (counts[s] == 0)
+                continue;
+            // States from minStatePlus on put out maxBitsOut bits, the rest one less
+            int maxBitsOut = tableLog - (counts[s] == 1 ? 0 : 31 - Integer.numberOfLeadingZeros(counts[s] - 1));
+            int minStatePlus = counts[s] << maxBitsOut;
+            deltaNbBits[s] = (maxBitsOut << 16) - minStatePlus;
+            deltaFindState[s] = cumulative[s] - counts[s];
+        }
+
+        decodeTable = new int[size];
+        int[] nextState = Arrays.copyOf(counts, counts.length);
+        for (int u = 0; u < size; u++) {
+            int s = symbolAt[u];
+            int state = nextState[s]++;
+            int bits = tableLog - (31 - Integer.numberOfLeadingZeros(state));
+            decodeTable[u] = ((state << bits) - size) << 16 | bits << 8 | s;
+        }
+    }
+
+    // The table size that codes data with these frequencies in the fewest
+    // bits, counting the header: larger tables follow the frequencies closer.
+    public static int bestTableLog(int[] frequencies) {
+        int used = (int) Arrays.stream(frequencies).filter(f -> f > 0).count();
+        int best = MAX_TABLE_LOG;
+        double bestBits = Double.MAX_VALUE;
+        for (int tableLog = Math.max(MIN_TABLE_LOG, 32 - Integer.numberOfLeadingZeros(used - 1)); tableLog <= MAX_TABLE_LOG;
+                tableLog++) {
+            int[] counts = normalize(frequencies, tableLog);
+            double bits = (double) used * (1 + tableLog);
+            for (int s = 0; s < frequencies.length; s++) {
+                if (frequencies[s] > 0)
+                    bits += frequencies[s] * (tableLog - Math.log(counts[s]) / Math.log(2));
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = tableLog;
+            }
+        }
+        return best;
+    }
+
+    // Scales frequencies to counts that sum to 2^tableLog. Every symbol that
+    // occurs keeps a count of at least 1; the rounding error is spread one
+    // count at a time where it costs the fewest bits.
+    public static int[] normalize(int[] frequencies, int tableLog) {
+        int size = 1 << tableLog;
+        long total = 0;
+        int used = 0;
+        for (int frequency : frequencies) {
+            total += frequency;
+            if (frequency > 0)
+                used++;
+        }
+        if (used > size)
+            throw new IllegalArgumentException(used + " symbols do not fit in a table of " + size);
+        int[] counts = new int[frequencies.length];
+        if (used == 0) {
+            // Nothing to code; any valid table will do
+            counts[0] = size;
+            return counts;
+        }
+        int sum = 0;
+        for (int s = 0; s < frequencies.length; s++) {
+            if (frequencies[s] > 0) {
+                counts[s] = (int) Math.max(1, (long) frequencies[s] * size / total);
+                sum += counts[s];
+            }
+        }
+        while (sum != size) {
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int s = 0; s < frequencies.length; s++) {
+                if (frequencies[s] == 0 || (sum > size && counts[s] == 1))
+                    continue;
+                // Bits the whole input gains by moving this count one step
+                double cost = sum < size ? -frequencies[s] * Math.log((counts[s] + 1.0) / counts[s])
+                        : frequencies[s] * Math.log(counts[s] / (counts[s] - 1.0));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = s;
+                }
+            }
+            counts[best] += sum < size ? 1 : -1;
+            sum += sum < size ? 1 : -1;
+        }
+        return counts;
+    }
+
+    // Encodes data[from..to) into a stream: the final state, then the bits
+    // of the first symbol up to those of the last.
+    public byte[] encode(ByteBuffer data, int from, int to) throws IOException {
+        int size = 1 << tableLog;
+        // Value << 5 | bit count of every symbol, by position in the input
+        int[] emitted = new int[to - from];
+        int state = size;
+        for (int i = to - 1; i >= from; i--) {
+            int s = data.get(i) & 0xFF;
+            int bits = (state + deltaNbBits[s]) >>> 16;
+            emitted[i - from] = (state & ((1 << bits) - 1)) << 5 | bits;
+            state = stateTable[(state >>> bits) + deltaFindState[s]];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((to - from) / 2 + 16);
+        try (BitWriter out = new BitWriter(bytes)) {
+            out.writeBits(state - size, tableLog);
+            for (int e : emitted) {
+                out.writeBits(e >>> 5, e & 31);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // Every stream is encoded by its own task
+    public byte[][] encodeStreams(ByteBuffer data, ForkJoinPool pool) throws IOException {
+        int[] bounds = Main.streamBounds(data.remaining());
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        for (int k = 0; k < Main.STREAMS; k++) {
+            int from = bounds[k];
+            int to = bounds[k + 1];
+            tasks.add(pool.submit(() -> encode(data, from, to)));
+        }
+        byte[][] streams = new byte[Main.STREAMS][];
+        for (int k = 0; k < Main.STREAMS; k++) {
+            streams[k] = tasks.get(k).join();
+        }
+        return streams;
+    }
+
+    // The four streams take turns, one symbol each. A step is a table load,
+    // a store and a read of 0 to tableLog bits, with no branch on the symbol.
+    public void decode(BitBuffer[] in, byte[] out, int[] bounds) {
+        BitBuffer in0 = in[0];
+        BitBuffer in1 = in[1];
+        BitBuffer in2 = in[2];
+        BitBuffer in3 = in[3];
+        int[] table = decodeTable;
+        in0.refill();
+        in1.refill();
+        in2.refill();
+        in3.refill();
+        int s0 = in0.take(tableLog);
+        int s1 = in1.take(tableLog);
+        int s2 = in2.take(tableLog);
+        int s3 = in3.take(tableLog);
+        int n0 = bounds[0];
+        int n1 = bounds[1];
+        int n2 = bounds[2];
+        int n3 = bounds[3];
+        int perRefill = BitBuffer.REFILL_BITS / tableLog;
+        while (n0 + perRefill <= bounds[1] && n1 + perRefill <= bounds[2] && n2 + perRefill <= bounds[3]
+                && n3 + perRefill <= bounds[4]) {
+            in0.refill();
+            in1.refill();
+            in2.refill();
+            in3.refill();
+            for (int k = 0; k < perRefill; k++) {
+                int e0 = table[s0];
+                int e1 = table[s1];
+                int e2 = table[s2];
+                int e3 = table[s3];
+                out[n0++] = (byte) e0;
+                out[n1++] = (byte) e1;
+                out[n2++] = (byte) e2;
+                out[n3++] = (byte) e3;
+                s0 = (e0 >>> 16) + in0.take(e0 >>> 8 & 31);
+                s1 = (e1 >>> 16) + in1.take(e1 >>> 8 & 31);
+                s2 = (e2 >>> 16) + in2.take(e2 >>> 8 & 31);
+                s3 = (e3 >>> 16) + in3.take(e3 >>> 8 & 31);
+            }
+        }
+        decodeTail(in0, s0, out, n0, bounds[1]);
+        decodeTail(in1, s1, out, n1, bounds[2]);
+        decodeTail(in2, s2, out, n2, bounds[3]);
+        decodeTail(in3, s3, out, n3, bounds[4]);
+    }
+
+    private void decodeTail(BitBuffer in, int state, byte[] out, int from, int to) {
+        for (int n = from; n < to; n++) {
+            in.refill();
+            int entry = decodeTable[state];
+            out[n] = (byte) entry;
+            state = (entry >>> 16) + in.take(entry >>> 8 & 31);
+        }
+    }
+
+    // Table size, then the counts of the used symbols in symbol order: how
+    // many there are, then for each a flag bit set when it follows the
+    // previous symbol directly (else the 8-bit symbol) and its count - 1.
+    public void writeCounts(BitWriter out) throws IOException {
+        out.writeBits(tableLog, 4);
+        int used = 0;
+        for (int count : counts) {
+            if (count > 0)
+                used++;
+        }
+        out.writeBits(used, 9);
+        int previous = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0)
+                continue;
+            if (i == previous + 1) {
+                out.writeBits(1, 1);
+            } else {
+                out.writeBits(0, 1);
+                out.writeBits(i, 8);
+            }
+            out.writeBits(counts[i] - 1, tableLog);
+            previous = i;
+        }
+    }
+
+    public static TansCode readCounts(BitBuffer in) throws IOException {
+        int tableLog = in.readBits(4);
+        int used = in.readBits(9);
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG || used < 1 || used > Main.ALPHABET_SIZE)
+            throw new IOException("Corrupt tANS header");
+        int[] counts = new int[Main.ALPHABET_SIZE];
+        int previous = -1;
+        for (int k = 0; k < used; k++) {
+            int symbol = in.readBits(1) == 1 ? previous + 1 : in.readBits(8);
+            if (symbol <= previous || symbol >= Main.ALPHABET_SIZE)
+                throw new IOException("Corrupt tANS header");
+            counts[symbol] = in.readBits(tableLog) + 1;
+            previous = symbol;
+        }
+        return new TansCode(counts, tableLog);
+    }
+
+    public int tableLog() {
+        return tableLog;
+    }
+
+    public int count(int symbol) {
+        return symbol < counts.length ? counts[symbol] : 0;
+    }
+
+    // Bits per symbol the counts cost on data with these frequencies
+    public double averageCost(int[] frequencies) {
+        double bits = 0;
+        long total = 0;
+        for (int s = 0; s < frequencies.length; s++) {
+            if (frequencies[s] > 0) {
+                bits += frequencies[s] * (tableLog - Math.log(counts[s]) / Math.log(2));
+                total += frequencies[s];
+            }
+        }
+        return total == 0 ? 0 : bits / total;
+    }
+}